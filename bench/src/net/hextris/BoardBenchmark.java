@@ -0,0 +1,95 @@
+package net.hextris;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the basic board operations.
+ *
+ * The board is a played game with a partly filled stack and some full
+ * lines. Benchmarks that modify the board restore it from a template first,
+ * {@link #copyFrom()} measures that part alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BoardBenchmark {
+
+    private Board template;
+    private Board board;
+    private Board stoneBoard;
+
+    @Setup
+    public void setUp() {
+        template = createStack(new Random(1));
+        board = new Board(template.getWidth(), template.getHeight());
+        board.copyFrom(template);
+        stoneBoard = new Board(Stone.stones[13]);
+    }
+
+    /**
+     * Creates a play board with a stack of randomly filled lines, every
+     * fourth line is full.
+     * @param r
+     * @return
+     */
+    static Board createStack(Random r) {
+        Board b = new Board(GameEngine.BOARD_WIDTH, GameEngine.BOARD_HEIGHT);
+        b.drawPlayField();
+        for (int y = b.getHeight() - 2; y > b.getHeight() / 2; y--) {
+            for (int x = 1; x < b.getWidth() - 1; x++) {
+                if (y % 4 == 0 || r.nextInt(10) < 7) {
+                    b.setField(x, y, 2 + r.nextInt(16));
+                }
+            }
+        }
+        return b;
+    }
+
+    @Benchmark
+    public int lineFull() {
+        int full = 0;
+        for (int y = 0; y < board.getHeight() - 1; y++) {
+            if (board.lineFull(y)) {
+                full++;
+            }
+        }
+        return full;
+    }
+
+    @Benchmark
+    public Board copyFrom() {
+        board.copyFrom(template);
+        return board;
+    }
+
+    @Benchmark
+    public Board removeLine() {
+        board.copyFrom(template);
+        board.removeLine(board.getHeight() - 2);
+        return board;
+    }
+
+    @Benchmark
+    public int removeFullLines() {
+        board.copyFrom(template);
+        return board.removeFullLines();
+    }
+
+    @Benchmark
+    public Board getFieldRotate() {
+        return stoneBoard.getFieldRotate(2, 2, Stone.LEFT);
+    }
+
+    @Benchmark
+    public int[] getSurface() {
+        return template.getSurface(Board.FROM_TOP);
+    }
+}
@@ -0,0 +1,58 @@
+package net.hextris;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the per-stone cycle of a headless game: the stone is
+ * positioned, dropped, full lines are removed and the next stone is created.
+ * A new game is started whenever the board is full.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GameCycleBenchmark {
+
+    private GameEngine engine;
+
+    @Setup
+    public void setUp() {
+        engine = new GameEngine(1);
+        engine.newGame(1, 1);
+    }
+
+    /**
+     * Shifts the stones up to four columns left or right, without the AI.
+     */
+    @Benchmark
+    public int dropAndClear() {
+        if (engine.isGameOver()) {
+            engine.newGame(1, 1);
+        }
+        int shift = engine.getStones() % 9 - 4;
+        for (int i = 0; i < Math.abs(shift); i++) {
+            engine.move(shift < 0 ? Stone.MOVE_LEFT : Stone.MOVE_RIGHT);
+        }
+        engine.drop();
+        return engine.getLines();
+    }
+
+    /**
+     * Positions every stone by the demo AI, then drops it.
+     */
+    @Benchmark
+    public int demoMove() {
+        if (engine.isGameOver()) {
+            engine.newGame(1, 1);
+        }
+        engine.autoPlace();
+        engine.drop();
+        return engine.getLines();
+    }
+}
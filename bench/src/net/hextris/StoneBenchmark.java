@@ -0,0 +1,84 @@
+package net.hextris;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of placing, moving and evaluating a stone on a played board.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoneBenchmark {
+
+    @Param({"0", "5", "13"})
+    public int type;
+    private Board board;
+    private Stone stone;
+    private final PlacementSearch search = new PlacementSearch();
+
+    @Setup
+    public void setUp() {
+        board = BoardBenchmark.createStack(new Random(1));
+        stone = new Stone(new Stone(type), board);
+        stone.setPosition((board.getWidth() - 5) / 2, 2);
+    }
+
+    @Benchmark
+    public int mayPlace() {
+        int count = 0;
+        for (int x = -2; x < board.getWidth() - 2; x++) {
+            if (stone.mayPlace(x, 2)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public Board place() {
+        stone.place(true);
+        stone.place(false);
+        return board;
+    }
+
+    /**
+     * Moves left and back right again, so the stone stays in place.
+     */
+    @Benchmark
+    public boolean moveHorizontal() {
+        stone.place(true);
+        boolean moved = stone.moveStone(Stone.MOVE_LEFT) & stone.moveStone(Stone.MOVE_RIGHT);
+        stone.place(false);
+        return moved;
+    }
+
+    /**
+     * Rotates left and back right again, so the stone stays in place.
+     */
+    @Benchmark
+    public boolean rotate() {
+        stone.place(true);
+        boolean rotated = stone.moveStone(Stone.ROTATE_LEFT) & stone.moveStone(Stone.ROTATE_RIGHT);
+        stone.place(false);
+        return rotated;
+    }
+
+    @Benchmark
+    public int[] getBestPosition() {
+        return stone.getBestPosition();
+    }
+
+    @Benchmark
+    public int[] getBestPositionReusingSearch() {
+        return stone.getBestPosition(search);
+    }
+}
@@ -0,0 +1,55 @@
+package net.hextris;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.I_Result;
+
+/**
+ * Two threads, e.g. the event dispatch thread and a replay, post input while
+ * the loop ticks. Every command has to be executed exactly once, by the
+ * ticking thread.
+ */
+@JCStressTest
+@Description("Commands posted during a tick are neither lost nor executed twice.")
+@Outcome(id = "0", expect = Expect.ACCEPTABLE, desc = "the moves left and right cancel out")
+@Outcome(expect = Expect.FORBIDDEN, desc = "a command was lost or executed twice")
+@State
+public class CommandQueueStress {
+
+    private final GameEngine engine = new GameEngine(1);
+    private final GameLoop loop = new GameLoop(engine);
+    private final int startX;
+
+    public CommandQueueStress() {
+        engine.newGame(0, 1, 1);
+        loop.setTickHistogram(null);
+        startX = engine.getCurrentStone().getPosition().x;
+    }
+
+    @Actor
+    public void left() {
+        loop.post(Command.MOVE_LEFT);
+    }
+
+    @Actor
+    public void right() {
+        loop.post(Command.MOVE_RIGHT);
+    }
+
+    @Actor
+    public void tick() {
+        loop.tick();
+    }
+
+    @Arbiter
+    public void arbiter(I_Result r) {
+        //executes what the first tick didn't see
+        loop.tick();
+        r.r1 = engine.getCurrentStone().getPosition().x - startX;
+    }
+}
@@ -0,0 +1,74 @@
+package net.hextris;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+/**
+ * The thread driving the game moves the stone and publishes snapshots like
+ * {@link GamePanel#repaintDirty()}, while the renderer reads the latest
+ * one. The renderer has to see the stone complete at one position, never
+ * half moved.
+ */
+@JCStressTest
+@Description("A published board snapshot is never torn by later moves.")
+@Outcome(id = "1, 0", expect = Expect.ACCEPTABLE, desc = "the first snapshot")
+@Outcome(id = "1, 1", expect = Expect.ACCEPTABLE, desc = "a snapshot after a move")
+@Outcome(id = {"0, 0", "0, 1"}, expect = Expect.FORBIDDEN, desc = "the stone is torn")
+@State
+public class SnapshotStress {
+
+    private final GameEngine engine = new GameEngine(1);
+    private final long firstVersion;
+    private volatile BoardSnapshot published;
+
+    public SnapshotStress() {
+        engine.newGame(0, 1, 1);
+        published = snapshot();
+        firstVersion = published.getVersion();
+    }
+
+    private BoardSnapshot snapshot() {
+        return new BoardSnapshot(engine.getBoard(), engine.getCurrentStone());
+    }
+
+    @Actor
+    public void game() {
+        engine.move(Stone.MOVE_LEFT);
+        published = snapshot();
+        engine.move(Stone.ROTATE_LEFT);
+        engine.move(Stone.MOVE_RIGHT);
+        published = snapshot();
+    }
+
+    @Actor
+    public void renderer(II_Result r) {
+        BoardSnapshot s = published;
+        r.r1 = isConsistent(s) ? 1 : 0;
+        r.r2 = s.getVersion() == firstVersion ? 0 : 1;
+    }
+
+    /**
+     * Tells if the only cells inside the frame are the ones of the stone.
+     * @param s
+     * @return
+     */
+    private static boolean isConsistent(BoardSnapshot s) {
+        int cells = 0;
+        for (int x = 1; x < s.getWidth() - 1; x++) {
+            for (int y = 0; y < s.getHeight() - 1; y++) {
+                if (s.getField(x, y) != 0) {
+                    if (!s.isStoneCell(x, y)) {
+                        return false;
+                    }
+                    cells++;
+                }
+            }
+        }
+        return cells == s.getStoneCellCount();
+    }
+}
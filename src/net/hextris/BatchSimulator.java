@@ -0,0 +1,223 @@
+package net.hextris;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Plays many demo games without user interface at full speed.
+ *
+ * The games are spread over all cores with a {@link ForkJoinPool}. Game
+ * number i uses the seed <code>seed + i</code>, so two runs with the same
+ * arguments play exactly the same stone sequences. At the end the number of
+ * games per second and the distribution of lines and stones is reported.
+ *
+ * Usage: <code>java -cp hextris.jar net.hextris.BatchSimulator
+ * [-games n] [-seed s] [-severity 0..2] [-max-stones n] [-threads n]
+ * [-weights file] [-beam n] [-budget ms] [-metrics file]</code>
+ *
+ * With <code>-beam</code> the demo AI looks one stone ahead, the branches
+ * are evaluated on the same pool as the games. With <code>-metrics</code>
+ * the times of the AI decisions are written to the file, see
+ * {@link Metrics#write(File)}.
+ */
+public class BatchSimulator {
+
+    /**
+     * number of games a task plays itself instead of splitting further
+     */
+    private static final int GAMES_PER_TASK = 2;
+    /**
+     * positions kept by the evaluation cache of the lookahead
+     */
+    private static final int CACHE_SIZE = 1 << 15;
+    private final int severity;
+    private final int maxStones;
+    private final PlacementEvaluator evaluator;
+    private ForkJoinPool lookaheadPool;
+    private EvalCache cache;
+    private int beamWidth;
+    private long budgetMillis;
+
+    /**
+     *
+     * @param severity severity of the games
+     * @param maxStones games are stopped after this number of stones
+     * @param evaluator rates the positions of the demo AI
+     */
+    public BatchSimulator(int severity, int maxStones, PlacementEvaluator evaluator) {
+        this.severity = severity;
+        this.maxStones = maxStones;
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Lets the demo AI look one stone ahead.
+     * @param pool pool the branches are evaluated on
+     * @param beamWidth positions of the current stone looked ahead from,
+     * 0 for no lookahead
+     * @param budgetMillis time budget per stone, 0 for no limit
+     */
+    public void setLookahead(ForkJoinPool pool, int beamWidth, long budgetMillis) {
+        this.lookaheadPool = pool;
+        if (beamWidth > 0 && cache == null) {
+            //shared by the games of all threads
+            cache = new EvalCache(evaluator, CACHE_SIZE);
+        }
+        this.beamWidth = beamWidth;
+        this.budgetMillis = budgetMillis;
+    }
+
+    /**
+     * Plays one game with the demo AI.
+     * @param seed
+     * @param lines receives the lines of the game at given index
+     * @param stones receives the stones of the game at given index
+     * @param idx
+     */
+    public void playGame(long seed, int[] lines, int[] stones, int idx) {
+        GameEngine engine = new GameEngine(seed);
+        engine.setEvaluator(evaluator);
+        if (beamWidth > 0) {
+            engine.setLookahead(new LookaheadSearch(lookaheadPool, evaluator, beamWidth, budgetMillis, cache));
+        }
+        engine.newGame(severity, 1);
+        while (!engine.isGameOver() && engine.getStones() < maxStones) {
+            engine.autoPlace();
+            engine.drop();
+        }
+        lines[idx] = engine.getLines();
+        stones[idx] = engine.getStones();
+    }
+
+    /**
+     * Plays the given number of games on the pool.
+     * @param pool
+     * @param games
+     * @param seed seed of the first game
+     * @param lines receives the lines of every game
+     * @param stones receives the stones of every game
+     */
+    public void run(ForkJoinPool pool, int games, long seed, int[] lines, int[] stones) {
+        pool.invoke(new GamesTask(seed, lines, stones, 0, games));
+    }
+
+    /**
+     * Plays the games from..to, splits the range while it's too big.
+     */
+    private class GamesTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final long seed;
+        private final int[] lines;
+        private final int[] stones;
+        private final int from;
+        private final int to;
+
+        GamesTask(long seed, int[] lines, int[] stones, int from, int to) {
+            this.seed = seed;
+            this.lines = lines;
+            this.stones = stones;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GAMES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    playGame(seed + i, lines, stones, i);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new GamesTask(seed, lines, stones, from, mid),
+                        new GamesTask(seed, lines, stones, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Prints min, mean, percentiles and max of the values.
+     * @param name
+     * @param values
+     */
+    private static void printDistribution(String name, int[] values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (int v : sorted) {
+            sum += v;
+        }
+        System.out.println(String.format("%-7s min %d  mean %.1f  p10 %d  p50 %d  p90 %d  p99 %d  max %d",
+                name + ":", sorted[0], (double) sum / sorted.length,
+                percentile(sorted, 10), percentile(sorted, 50), percentile(sorted, 90),
+                percentile(sorted, 99), sorted[sorted.length - 1]));
+    }
+
+    private static int percentile(int[] sorted, int p) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)];
+    }
+
+    public static void main(String[] args) throws IOException {
+        int games = 1000;
+        long seed = 0;
+        int severity = 1;
+        int maxStones = 10000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        PlacementEvaluator evaluator = LinearEvaluator.getDefault();
+        int beamWidth = 0;
+        long budget = 0;
+        File metrics = null;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            if (args[i].equals("-games")) {
+                games = Integer.parseInt(value);
+            } else if (args[i].equals("-seed")) {
+                seed = Long.parseLong(value);
+            } else if (args[i].equals("-severity")) {
+                severity = Integer.parseInt(value);
+            } else if (args[i].equals("-max-stones")) {
+                maxStones = Integer.parseInt(value);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(value);
+            } else if (args[i].equals("-weights")) {
+                evaluator = LinearEvaluator.load(new File(value));
+            } else if (args[i].equals("-beam")) {
+                beamWidth = Integer.parseInt(value);
+            } else if (args[i].equals("-budget")) {
+                budget = Long.parseLong(value);
+            } else if (args[i].equals("-metrics")) {
+                metrics = new File(value);
+            } else {
+                System.out.println("unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        BatchSimulator simulator = new BatchSimulator(severity, maxStones, evaluator);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        simulator.setLookahead(pool, beamWidth, budget);
+        int[] lines = new int[games];
+        int[] stones = new int[games];
+
+        long start = System.nanoTime();
+        simulator.run(pool, games, seed, lines, stones);
+        double secs = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        long totalStones = 0;
+        for (int s : stones) {
+            totalStones += s;
+        }
+        System.out.println(String.format("%d games on %d threads in %.2f s: %.1f games/s, %.0f stones/s",
+                games, threads, secs, games / secs, totalStones / secs));
+        printDistribution("lines", lines);
+        printDistribution("stones", stones);
+        if (metrics != null) {
+            Metrics.getDefault().write(metrics);
+        }
+    }
+}
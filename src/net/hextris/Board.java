@@ -1,28 +1,73 @@
 package net.hextris;
 
+import java.util.Arrays;
+
 /**
  * Implements the Hextris gameboard (or stone board). 
  * 
  * Supports clearing the field, setting and reading single fields.
  * Removelines supports deleting full lines and moving the rest down.
  * 
+ * The field is bit-packed: every row keeps a <code>long</code> occupancy mask
+ * (bit x set if the cell in column x is not empty) and the colors live in a
+ * separate byte plane. A full line is thus a single mask compare and removing
+ * a line only shifts the masks and the colors of the rows above it.
+ * Boards are limited to {@link #MAX_WIDTH} columns.
+ * 
+ * The board also keeps the top of every column, the number of cells in every
+ * column and the number of holes up to date while fields are set and lines
+ * removed. Surface queries and the features used by the AI don't need to
+ * scan the whole field.
+ * 
  * @author fränk
  */
 public class Board {
 
     public static boolean FROM_TOP = true;
     public static boolean FROM_BOTTOM = false;
+    public static final int MAX_WIDTH = 64;
     protected int width;
     protected int height;
-    protected int field[][];
+    /**
+     * occupancy mask of each row
+     */
+    protected long rows[];
+    /**
+     * colors of the cells, row by row
+     */
+    protected byte colors[];
+    /**
+     * mask of the inner cells of a row, i.e. without the frame columns
+     */
+    private long innerMask;
+    /**
+     * first occupied row of each column from top, -1 if the column is empty
+     */
+    private int columnTops[];
+    /**
+     * number of occupied cells in each column
+     */
+    private int columnCounts[];
+    /**
+     * number of empty cells below the top of their column
+     */
+    private int holeCount;
+    /**
+     * rows and columns changed since the last {@link #clearDirty()}
+     */
+    private int dirtyTop;
+    private int dirtyBottom;
+    private long dirtyColumns;
+    /**
+     * incremented by every change of a cell
+     */
+    private long version;
 
     /**
      * New board with given size.
      */
     public Board(int width, int height) {
-        this.width = width;
-        this.height = height;
-        field = new int[height][width];
+        init(width, height);
     }
 
     /**
@@ -30,9 +75,27 @@ public class Board {
      * @param field
      */
     public Board(int[][] field) {
-        this.width = field[0].length;
-        this.height = field.length;
-        this.field = field;
+        setField(field);
+    }
+
+    /**
+     * Allocates an empty field of given size.
+     * @param width
+     * @param height
+     */
+    private void init(int width, int height) {
+        if (width > MAX_WIDTH) {
+            throw new IllegalArgumentException("board too wide: " + width);
+        }
+        this.width = width;
+        this.height = height;
+        rows = new long[height];
+        colors = new byte[height * width];
+        columnTops = new int[width];
+        columnCounts = new int[width];
+        resetIndex();
+        markAllDirty();
+        innerMask = width > 2 ? ((-1L >>> (MAX_WIDTH - width + 2)) << 1) : 0;
     }
 
     /**
@@ -41,12 +104,7 @@ public class Board {
      * @return
      */
     public boolean lineFull(int y) {
-        for (int x = 1; x < width - 1; x++) {
-            if (field[y][x] == 0) {
-                return false;
-            }
-        }
-        return true;
+        return (rows[y] & innerMask) == innerMask;
     }
 
     /**
@@ -54,20 +112,33 @@ public class Board {
      * @param y
      */
     public void clearLine(int y) {
-        for (int x = 1; x < this.width - 1; x++) {
-            field[y][x] = 0;
+        long cleared = rows[y] & innerMask;
+        clearLineCells(y);
+        markDirty(y, y, innerMask);
+        for (int x = 1; x < width - 1; x++) {
+            if ((cleared & (1L << x)) != 0) {
+                columnChanged(x, y, false);
+            }
         }
     }
 
+    /**
+     * Clears the inner cells of a line without updating the column index.
+     * @param y
+     */
+    private void clearLineCells(int y) {
+        rows[y] &= ~innerMask;
+        Arrays.fill(colors, y * width + 1, (y + 1) * width - 1, (byte) 0);
+    }
+
     /**
      * 
      * @param srcY
      * @param destY
      */
     private void copyLine(int srcY, int destY) {
-        for (int x = 1; x < width - 1; x++) {
-            field[destY][x] = field[srcY][x];
-        }
+        rows[destY] = (rows[destY] & ~innerMask) | (rows[srcY] & innerMask);
+        System.arraycopy(colors, srcY * width + 1, colors, destY * width + 1, width - 2);
     }
 
     /**
@@ -75,12 +146,43 @@ public class Board {
      * @param y
      */
     public void removeLine(int y) {
+        long removed = rows[y];
         for (int cY = y; cY > 0; cY--) {
             copyLine(cY - 1, cY);
         }
+        clearLineCells(0);
+        markDirty(0, y, innerMask);
+
+        //the cells above y moved one row down, the ones below stay
         for (int x = 1; x < width - 1; x++) {
-            field[0][x] = 0;
+            int top = columnTops[x];
+            holeCount -= getColumnHoles(x);
+            if ((removed & (1L << x)) != 0) {
+                columnCounts[x]--;
+            }
+            if (top >= 0 && top < y) {
+                columnTops[x] = top + 1;
+            } else if (top == y) {
+                columnTops[x] = findColumnTop(x, y + 1);
+            }
+            holeCount += getColumnHoles(x);
+        }
+    }
+
+    /**
+     * Removes the full lines from the board and drops the lines above down.
+     * @return number of removed lines
+     */
+    public int removeFullLines() {
+        int lines = 0;
+        for (int y = height - 2; y > 0; y--) {
+            if (lineFull(y)) {
+                removeLine(y);
+                lines++;
+                y++;
+            }
         }
+        return lines;
     }
 
     /**
@@ -103,15 +205,16 @@ public class Board {
      * Draws the play area on this board, i.e. the frame of hexagons.
      */
     public void drawPlayField() {
+        Arrays.fill(colors, (byte) 0);
+        Arrays.fill(rows, 0);
+        resetIndex();
+        markAllDirty();
         for (int y = 0; y < height - 1; y++) {
-            field[y][0] = 1;
-            for (int x = 1; x < width - 1; x++) {
-                field[y][x] = 0;
-            }
-            field[y][width - 1] = 1;
+            setField(0, y, 1);
+            setField(width - 1, y, 1);
         }
         for (int x = 0; x < width; x++) {
-            field[height - 1][x] = 1;
+            setField(x, height - 1, 1);
         }
     }
 
@@ -123,8 +226,141 @@ public class Board {
      */
     protected void setField(int x, int y, int color) {
         if (x >= 0 && x < width && y >= 0 && y < height) {
-            field[y][x] = color;
+            if (colors[y * width + x] != (byte) color) {
+                markDirty(y, y, 1L << x);
+            }
+            colors[y * width + x] = (byte) color;
+            long row = rows[y];
+            if (color != 0) {
+                rows[y] |= 1L << x;
+            } else {
+                rows[y] &= ~(1L << x);
+            }
+            if (row != rows[y]) {
+                columnChanged(x, y, color != 0);
+            }
+        }
+    }
+
+    /**
+     * Updates the column index after a cell of the column was set or
+     * cleared.
+     * @param x
+     * @param y
+     * @param occupied
+     */
+    private void columnChanged(int x, int y, boolean occupied) {
+        holeCount -= getColumnHoles(x);
+        if (occupied) {
+            columnCounts[x]++;
+            if (columnTops[x] < 0 || y < columnTops[x]) {
+                columnTops[x] = y;
+            }
+        } else {
+            columnCounts[x]--;
+            if (y == columnTops[x]) {
+                columnTops[x] = findColumnTop(x, y + 1);
+            }
+        }
+        holeCount += getColumnHoles(x);
+    }
+
+    /**
+     * Finds the first occupied row of a column.
+     * @param x
+     * @param fromY row to start with
+     * @return the row or -1 if there is none
+     */
+    private int findColumnTop(int x, int fromY) {
+        long bit = 1L << x;
+        for (int y = fromY; y < height; y++) {
+            if ((rows[y] & bit) != 0) {
+                return y;
+            }
         }
+        return -1;
+    }
+
+    /**
+     * Finds the first occupied row of a column at or below the given row.
+     * @param x
+     * @param fromY
+     * @return the row or -1 if there is none
+     */
+    int getFirstOccupied(int x, int fromY) {
+        int top = columnTops[x];
+        if (top < 0 || fromY <= top) {
+            return top;
+        }
+        return findColumnTop(x, fromY);
+    }
+
+    /**
+     * Forgets the column index of an empty field.
+     */
+    private void resetIndex() {
+        Arrays.fill(columnTops, -1);
+        Arrays.fill(columnCounts, 0);
+        holeCount = 0;
+    }
+
+    /**
+     * Returns the first occupied row of a column from top.
+     * @param x
+     * @return the row or -1 if the column is empty
+     */
+    public int getColumnTop(int x) {
+        return columnTops[x];
+    }
+
+    /**
+     * Returns the height of the stack in a column, i.e. the number of rows
+     * from the column's top to the bottom of the board.
+     * @param x
+     * @return
+     */
+    public int getColumnHeight(int x) {
+        return columnTops[x] < 0 ? 0 : height - columnTops[x];
+    }
+
+    /**
+     * Returns the number of empty cells below the top of a column.
+     * @param x
+     * @return
+     */
+    public int getColumnHoles(int x) {
+        return getColumnHeight(x) - columnCounts[x];
+    }
+
+    /**
+     * Returns the number of occupied cells of a row.
+     * @param y
+     * @return
+     */
+    public int getRowCount(int y) {
+        return Long.bitCount(rows[y]);
+    }
+
+    /**
+     * Returns the number of empty cells that have an occupied cell above
+     * them in their column.
+     * @return
+     */
+    public int getHoleCount() {
+        return holeCount;
+    }
+
+    /**
+     * Returns the sum of the height differences of neighbouring inner
+     * columns.
+     * @return
+     */
+    public int getBumpiness() {
+        int res = 0;
+        for (int x = 1; x < width - 2; x++) {
+            res += Math.abs(getColumnHeight(x) - getColumnHeight(x + 1));
+        }
+        return res;
     }
 
     /**
@@ -135,26 +371,131 @@ public class Board {
      */
     protected int getField(int x, int y) {
         if (x >= 0 && x < width && y >= 0 && y < height) {
-            return field[y][x];
+            return colors[y * width + x];
         } else {
             return 1;
         }
     }
 
     /**
-     *
+     * Is the field at given position occupied?
+     * @param x
+     * @param y
+     * @return
+     */
+    protected boolean isOccupied(int x, int y) {
+        return (rows[y] & (1L << x)) != 0;
+    }
+
+    /**
+     * Returns a copy of the field.
      * @return
      */
     protected int[][] getField() {
-        return field;
+        int[][] res = new int[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                res[y][x] = colors[y * width + x];
+            }
+        }
+        return res;
     }
 
     /**
-     *
+     * Replaces the field by the given one, the size of the board is taken
+     * from the array.
      * @param is
      */
     protected void setField(int[][] is) {
-        field = is;
+        init(is[0].length, is.length);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                setField(x, y, is[y][x]);
+            }
+        }
+    }
+
+    /**
+     * Copies the field of another board of the same size.
+     * @param other
+     */
+    protected void copyFrom(Board other) {
+        System.arraycopy(other.rows, 0, rows, 0, height);
+        System.arraycopy(other.colors, 0, colors, 0, colors.length);
+        System.arraycopy(other.columnTops, 0, columnTops, 0, width);
+        System.arraycopy(other.columnCounts, 0, columnCounts, 0, width);
+        holeCount = other.holeCount;
+        markAllDirty();
+    }
+
+    /**
+     * Tells if a cell changed since the last {@link #clearDirty()}.
+     * @return
+     */
+    public boolean isDirty() {
+        return dirtyColumns != 0;
+    }
+
+    /**
+     * Returns the topmost changed row.
+     * @return
+     */
+    public int getDirtyTop() {
+        return dirtyTop;
+    }
+
+    /**
+     * Returns the lowest changed row.
+     * @return
+     */
+    public int getDirtyBottom() {
+        return dirtyBottom;
+    }
+
+    /**
+     * Returns the mask of the changed columns, bit x is set if a cell of
+     * column x changed.
+     * @return
+     */
+    public long getDirtyColumns() {
+        return dirtyColumns;
+    }
+
+    /**
+     * Returns a number which changes whenever a cell changes. Like the
+     * dirty region it's only consistent on the thread that changes the
+     * board.
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Forgets the changed cells, e.g. after they were repainted. The dirty
+     * region is only consistent on the thread that changes the board.
+     */
+    public void clearDirty() {
+        dirtyTop = Integer.MAX_VALUE;
+        dirtyBottom = -1;
+        dirtyColumns = 0;
+    }
+
+    /**
+     * Adds rows and columns to the dirty region.
+     * @param top
+     * @param bottom
+     * @param columns mask of the columns
+     */
+    private void markDirty(int top, int bottom, long columns) {
+        dirtyTop = Math.min(dirtyTop, top);
+        dirtyBottom = Math.max(dirtyBottom, bottom);
+        dirtyColumns |= columns;
+        version++;
+    }
+
+    private void markAllDirty() {
+        markDirty(0, height - 1, width == MAX_WIDTH ? -1L : (1L << width) - 1);
     }
 
     /**
@@ -170,10 +511,10 @@ public class Board {
      * @return a new board with the rotated field
      */
     protected Board getFieldRotate(int cx, int cy, boolean direction) {
-        int[][] newField = new int[this.getHeight()][this.getWidth()];
-        for (int y = 0; y < this.field.length; y++) {
-            for (int x = 0; x < this.field[y].length; x++) {
-                if (this.field[y][x] != 0) {
+        Board res = new Board(this.getWidth(), this.getHeight());
+        for (int y = 0; y < this.height; y++) {
+            for (int x = 0; x < this.width; x++) {
+                if (isOccupied(x, y)) {
 
                     //compute path
                     int path[] = {0, 0, 0};
@@ -222,13 +563,13 @@ public class Board {
                     newy -= newPath[2] / 2;
 
                     if (newx < this.getWidth() && newx >= 0 && newy < this.getHeight() && newy >= 0) {
-                        newField[newy][newx] = field[y][x];
+                        res.setField(newx, newy, getField(x, y));
                     }
                 }
             }
         }
 
-        return new Board(newField);
+        return res;
     }
 
     /**
@@ -237,12 +578,25 @@ public class Board {
      * @return
      */
     public int[] getSurface(boolean direction) {
-        int[] res = new int[this.width];
+        return getSurface(direction, new int[this.width]);
+    }
+
+    /**
+     * Computes the surface into the given array.
+     * @param direction
+     * @param res array of the board's width
+     * @return res
+     */
+    public int[] getSurface(boolean direction, int[] res) {
+        if (direction == FROM_TOP) {
+            System.arraycopy(columnTops, 0, res, 0, width);
+            return res;
+        }
 
         for (int x = 0; x < this.width; x++) {
             res[x] = -1;
-            for (int y = direction ? 0 : this.height - 1; y != (direction ? this.height : -1); y += direction ? 1 : -1) {
-                if (this.field[y][x] != 0) {
+            for (int y = this.height - 1; y >= 0; y--) {
+                if (isOccupied(x, y)) {
                     res[x] = y;
                     break;
                 }
@@ -0,0 +1,119 @@
+package net.hextris;
+
+import java.util.Arrays;
+
+/**
+ * An immutable copy of the cells of a board and of the cells of the stone
+ * moving on it.
+ *
+ * The thread driving the game is the only one changing the board. It
+ * takes a snapshot after a change and publishes it, e.g. in a volatile
+ * field, and other threads like the event dispatch thread only read the
+ * snapshot. The copy is small, a byte per cell.
+ */
+public final class BoardSnapshot {
+
+    private final int width;
+    private final int height;
+    private final byte[] colors;
+    private final int[] stoneX;
+    private final int[] stoneY;
+    private final long version;
+
+    /**
+     * Copies a board, must be called by the thread changing it.
+     * @param board
+     * @param stone the stone moving on the board or null
+     */
+    public BoardSnapshot(Board board, Stone stone) {
+        width = board.getWidth();
+        height = board.getHeight();
+        colors = Arrays.copyOf(board.colors, board.colors.length);
+        version = board.getVersion();
+        if (stone != null) {
+            int[] xs = new int[StoneCatalog.SIZE * StoneCatalog.SIZE];
+            int[] ys = new int[StoneCatalog.SIZE * StoneCatalog.SIZE];
+            int n = stone.getCells(xs, ys);
+            stoneX = Arrays.copyOf(xs, n);
+            stoneY = Arrays.copyOf(ys, n);
+        } else {
+            stoneX = new int[0];
+            stoneY = new int[0];
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the color of a cell.
+     * @param x
+     * @param y
+     * @return the color, 0 if the cell is empty or outside the board
+     */
+    public int getField(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return 0;
+        }
+        return colors[y * width + x];
+    }
+
+    /**
+     * Returns the version of the board the snapshot was taken at, see
+     * {@link Board#getVersion()}.
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean hasStone() {
+        return stoneX.length > 0;
+    }
+
+    /**
+     * Returns the number of cells of the stone.
+     * @return
+     */
+    public int getStoneCellCount() {
+        return stoneX.length;
+    }
+
+    /**
+     * Returns the column of a cell of the stone.
+     * @param i
+     * @return
+     */
+    public int getStoneX(int i) {
+        return stoneX[i];
+    }
+
+    /**
+     * Returns the row of a cell of the stone.
+     * @param i
+     * @return
+     */
+    public int getStoneY(int i) {
+        return stoneY[i];
+    }
+
+    /**
+     * Tells if a cell belongs to the stone.
+     * @param x
+     * @param y
+     * @return
+     */
+    public boolean isStoneCell(int x, int y) {
+        for (int i = 0; i < stoneX.length; i++) {
+            if (stoneX[i] == x && stoneY[i] == y) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,17 @@
+package net.hextris;
+
+/**
+ * Player input for the current stone, queued by the {@link GameLoop} and
+ * executed on its next tick.
+ */
+public enum Command {
+
+    MOVE_LEFT,
+    MOVE_RIGHT,
+    ROTATE_LEFT,
+    ROTATE_RIGHT,
+    /** moves the stone down one line and restarts the gravity delay */
+    MOVE_DOWN,
+    /** drops the stone until it lands */
+    FALL_DOWN
+}
@@ -1,20 +1,44 @@
 package net.hextris;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.Hashtable;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.awt.event.KeyEvent;
 
 /**
  * An application context where program properties are kept/loaded/saved.
+ *
+ * The properties are held in an immutable snapshot which is replaced on
+ * every change, so reading a property never locks. Changes are written to
+ * the config file by a background thread, several changes in a short time
+ * end up in one write. The file is written to a temporary file first and
+ * then renamed, a crash never leaves a half written config.
+ *
+ * The file is plain text, a <code>version</code> line followed by one
+ * <code>name=value</code> line per property.
  * @author frank
  * @author Radek Varbuchta
  */
-public class Context extends Hashtable<Context.IProperty, Object> {
+public class Context {
 
     public enum HexSize {
 
@@ -31,65 +55,122 @@ public class Context extends Hashtable<Context.IProperty, Object> {
 
     public enum Key implements IProperty {
 
-        MOVE_LEFT(KeyEvent.VK_LEFT),
-        MOVE_RIGHT(KeyEvent.VK_RIGHT),
-        MOVE_DOWN(KeyEvent.VK_SPACE),
-        FALL_DOWN(KeyEvent.VK_DOWN),
-        ROTATE_LEFT(KeyEvent.VK_UP),
-        ROTATE_RIGHT(KeyEvent.VK_R);
+        MOVE_LEFT(KeyEvent.VK_LEFT, Command.MOVE_LEFT),
+        MOVE_RIGHT(KeyEvent.VK_RIGHT, Command.MOVE_RIGHT),
+        MOVE_DOWN(KeyEvent.VK_SPACE, Command.MOVE_DOWN),
+        FALL_DOWN(KeyEvent.VK_DOWN, Command.FALL_DOWN),
+        ROTATE_LEFT(KeyEvent.VK_UP, Command.ROTATE_LEFT),
+        ROTATE_RIGHT(KeyEvent.VK_R, Command.ROTATE_RIGHT);
         private int intValue;
+        private Command command;
 
-        Key(int intValue) {
+        Key(int intValue, Command command) {
             this.intValue = intValue;
+            this.command = command;
         }
 
         private int intValue() {
             return intValue;
         }
+
+        /**
+         * Returns the command executed by this key.
+         * @return
+         */
+        public Command getCommand() {
+            return command;
+        }
+    }
+
+    /**
+     * The properties at some point in time.
+     */
+    private static final class Snapshot {
+
+        final Map<IProperty, Object> values;
+        /**
+         * increased by every change
+         */
+        final long version;
+        /**
+         * command of every key code, null for unbound codes
+         */
+        final Command[] commands;
+
+        Snapshot(Map<IProperty, Object> values, long version, Command[] commands) {
+            this.values = values;
+            this.version = version;
+            this.commands = commands != null ? commands : buildCommands(values);
+        }
     }
-    static final long serialVersionUID = 493518487136L;
     private static Context ctx = null;
     private static String DIR_PATH;
     private static final String CFG_FILE_NAME = "hextris.cfg";
+    private static final int FORMAT_VERSION = 1;
+    private static final String KEY_PREFIX = "key.";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * changes within this time are saved together
+     */
+    private static final long SAVE_DELAY_MILLIS = 500;
     private static final HexSize DEFAULT_HEX_SIZE = HexSize.NORMAL;
     private static final String DEFAULT_LAST_NAME = "";
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>();
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    private final Object saveLock = new Object();
+    private ScheduledExecutorService writer;
+    private long savedVersion = -1;
     private boolean access;
 
     /**
-     * Creates a new config file with default values.
-     * @throws java.io.IOException
+     * Creates a context with default values and overrides them by the
+     * config file if there is one.
      */
-    private Context() throws IOException {
+    private Context() {
         try {
-            System.getProperty("user.home");
+            DIR_PATH = System.getProperty("user.home") + System.getProperty("file.separator") + ".hextris";
             access = true;
         } catch (SecurityException ex) {
             access = false;
         }
 
-        if (access) {
-            File file = Context.getConfigFile();
-            if (!file.exists()) {
-                file.createNewFile();
-            }
+        Map<IProperty, Object> values = new HashMap<IProperty, Object>();
+        for (Key key : Key.values()) {
+            values.put(key, key.intValue());
         }
+        values.put(Property.HEX_SIZE, DEFAULT_HEX_SIZE);
+        values.put(Property.LAST_NAME, DEFAULT_LAST_NAME);
 
-        for (Key key : Key.values()) {
-            super.put(key, key.intValue());
-        }
-        for (Property p : Property.values()) {
-            switch (p) {
-                case HEX_SIZE:
-                    super.put(Property.HEX_SIZE, DEFAULT_HEX_SIZE);
-                    break;
-                case LAST_NAME:
-                    super.put(Property.LAST_NAME, DEFAULT_LAST_NAME);
-                    break;
+        boolean loaded = false;
+        if (access) {
+            try {
+                loaded = load(values);
+            } catch (IOException ex) {
+                System.out.println("could not load context create new one");
             }
         }
+        //the last name is only kept while the program runs
+        values.put(Property.LAST_NAME, DEFAULT_LAST_NAME);
+        snapshot.set(new Snapshot(Collections.unmodifiableMap(values), 0, null));
 
         if (access) {
-            save();
+            writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "hextris-config");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+                public void run() {
+                    flush();
+                }
+            }, "hextris-config-flush"));
+            if (!loaded) {
+                scheduleSave();
+            }
         }
     }
 
@@ -112,46 +193,152 @@ public class Context extends Hashtable<Context.IProperty, Object> {
      * If neccessary a new context is created and initialized.
      * @return context
      */
-    public static Context getContext() {
+    public static synchronized Context getContext() {
         if (ctx == null) {
-            try {
-                DIR_PATH = System.getProperty("user.home") + System.getProperty("file.separator") + ".hextris";
-                FileInputStream istream = new FileInputStream(getConfigFile());
-                ObjectInputStream p = new ObjectInputStream(istream);
-                Object o = p.readObject();
-                istream.close();
-                ctx = (Context) o;
-                ctx.resetLastName();
-            } catch (Exception ex) {
-                System.out.println("could not load context create new one");
+            ctx = new Context();
+        }
+        return ctx;
+    }
+
+    /**
+     * Builds the table of key codes to commands. If a code is bound to
+     * several keys the first command in {@link Command} order wins.
+     * @param values
+     * @return
+     */
+    private static Command[] buildCommands(Map<IProperty, Object> values) {
+        int max = 0;
+        for (Key key : Key.values()) {
+            max = Math.max(max, Integer.parseInt(values.get(key).toString()));
+        }
+        Command[] commands = new Command[max + 1];
+        for (Command command : Command.values()) {
+            for (Key key : Key.values()) {
+                int code = Integer.parseInt(values.get(key).toString());
+                if (key.getCommand() == command && code >= 0 && commands[code] == null) {
+                    commands[code] = command;
+                }
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * Reads the config file into the given values. Unknown names are
+     * skipped.
+     * @param values
+     * @return false if there is no config file of a known version
+     * @throws IOException
+     */
+    private static boolean load(Map<IProperty, Object> values) throws IOException {
+        File file = getConfigFile();
+        if (!file.exists()) {
+            return false;
+        }
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+        try {
+            String line = in.readLine();
+            if (line == null || !line.equals("version=" + FORMAT_VERSION)) {
+                //an empty file or one of the old serialized format
+                System.out.println("unknown config format, using defaults");
+                return false;
+            }
+            while ((line = in.readLine()) != null) {
+                int eq = line.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                String name = line.substring(0, eq);
+                String value = line.substring(eq + 1);
                 try {
-                    ctx = new Context();
-                } catch (IOException ex1) {
-                    System.out.println("cannot create config file");
+                    if (name.startsWith(KEY_PREFIX)) {
+                        values.put(Key.valueOf(name.substring(KEY_PREFIX.length())), Integer.valueOf(value));
+                    } else if (name.equals(Property.HEX_SIZE.name())) {
+                        values.put(Property.HEX_SIZE, HexSize.valueOf(value));
+                    } else if (name.equals(Property.LAST_NAME.name())) {
+                        values.put(Property.LAST_NAME, value);
+                    }
+                } catch (IllegalArgumentException ex) {
+                    System.out.println("invalid config line " + line);
                 }
             }
+            return true;
+        } finally {
+            in.close();
         }
-        return ctx;
     }
 
     /**
-     * Saves properties to the disk.
+     * Writes the current snapshot unless it's saved already.
      */
     private void save() {
-        if (!access) {
-            return;
+        synchronized (saveLock) {
+            Snapshot s = snapshot.get();
+            if (s.version == savedVersion) {
+                return;
+            }
+
+            File file = getConfigFile();
+            File tmp = new File(file.getPath() + ".tmp");
+            try {
+                Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF8));
+                try {
+                    out.write("version=" + FORMAT_VERSION + "\n");
+                    for (Map.Entry<IProperty, Object> e : s.values.entrySet()) {
+                        String name = e.getKey() instanceof Key
+                                ? KEY_PREFIX + ((Key) e.getKey()).name() : ((Property) e.getKey()).name();
+                        String value = e.getValue().toString().replace('\n', ' ').replace('\r', ' ');
+                        out.write(name + "=" + value + "\n");
+                    }
+                } finally {
+                    out.close();
+                }
+                try {
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                savedVersion = s.version;
+            } catch (IOException ex) {
+                System.out.println("could not save config");
+            }
         }
+    }
 
-        try {
-            FileOutputStream ostream = new FileOutputStream(getConfigFile());
-            ObjectOutputStream p = new ObjectOutputStream(ostream);
-            p.writeObject(this);
-            p.flush();
-            ostream.close();
-        } catch (Exception ex) {
-            System.out.println("could not save config");
+    /**
+     * Saves the properties after {@link #SAVE_DELAY_MILLIS} unless a save
+     * is pending already.
+     */
+    private void scheduleSave() {
+        if (savePending.compareAndSet(false, true)) {
+            writer.schedule(new Runnable() {
+
+                public void run() {
+                    savePending.set(false);
+                    save();
+                }
+            }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes pending changes to the disk right away.
+     */
+    public void flush() {
+        if (access) {
+            save();
         }
+    }
 
+    /**
+     * Returns the value of a property.
+     * @param property
+     * @return
+     */
+    public Object get(IProperty property) {
+        return snapshot.get().values.get(property);
     }
 
     /**
@@ -183,13 +370,6 @@ public class Context extends Hashtable<Context.IProperty, Object> {
         return (String) val;
     }
 
-    /**
-     * Resets the last name to got into the high score to the default value.
-     */
-    private void resetLastName() {
-        put(Property.LAST_NAME, DEFAULT_LAST_NAME);
-    }
-
     /**
      * Returns integer representation of the given key.
      * @param key
@@ -200,15 +380,36 @@ public class Context extends Hashtable<Context.IProperty, Object> {
     }
 
     /**
-     * Puts key-value property into the context and permanently saves changes.
-     * {@inheritDoc}
+     * Returns the command bound to a key code.
+     * @param keyCode
+     * @return the command or null if the code isn't bound
      */
-    @Override
-    public synchronized Object put(IProperty property, Object value) {
-        Object retVal = super.put(property, value);
-        if (access) {
-            save();
+    public Command getCommand(int keyCode) {
+        Command[] commands = snapshot.get().commands;
+        return keyCode >= 0 && keyCode < commands.length ? commands[keyCode] : null;
+    }
+
+    /**
+     * Puts key-value property into the context. The change is saved to the
+     * disk shortly after.
+     * @param property
+     * @param value
+     * @return the previous value
+     */
+    public Object put(IProperty property, Object value) {
+        while (true) {
+            Snapshot old = snapshot.get();
+            Map<IProperty, Object> values = new HashMap<IProperty, Object>(old.values);
+            Object retVal = values.put(property, value);
+            //the key table is only rebuilt if a binding changed
+            Command[] commands = property instanceof Key ? null : old.commands;
+            if (snapshot.compareAndSet(old, new Snapshot(Collections.unmodifiableMap(values), old.version + 1,
+                    commands))) {
+                if (access) {
+                    scheduleSave();
+                }
+                return retVal;
+            }
         }
-        return retVal;
     }
 }
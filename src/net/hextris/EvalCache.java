@@ -0,0 +1,201 @@
+package net.hextris;
+
+import java.util.Random;
+
+/**
+ * Remembers the ratings of stone positions, so the AI doesn't drop and
+ * rate the same stone on the same board twice.
+ *
+ * A position is keyed by the Zobrist hash of the occupied cells of the
+ * board, the stone type, the rotation and the horizontal position. The
+ * cache is set associative: a key can only be stored in the
+ * {@link #WAYS} slots of its set, a full set evicts by the clock algorithm,
+ * which approximates least recently used. A set is kept in consecutive
+ * longs, so a lookup touches few cache lines.
+ *
+ * The cache takes no locks. A slot stores its key xored with its rating
+ * and info, so a slot written by two threads at once or read while it's
+ * written doesn't match any key and is a miss, not a wrong rating.
+ *
+ * The ratings are only valid for one evaluator, so a cache belongs to the
+ * evaluator it's created for.
+ */
+public class EvalCache {
+
+    /**
+     * slots of a set
+     */
+    private static final int WAYS = 8;
+    /**
+     * longs of a slot: checked key, rating and info
+     */
+    private static final int SLOT_LONGS = 3;
+    private static final int SET_LONGS = SLOT_LONGS * WAYS;
+    /**
+     * info bit of a slot used since the clock hand passed it
+     */
+    private static final long REFERENCED = 1L << 32;
+    /**
+     * rows of the Zobrist table, boards with more rows reuse its keys
+     */
+    private static final int ZOBRIST_ROWS = 64;
+    private static final long[] ZOBRIST = new long[ZOBRIST_ROWS * Board.MAX_WIDTH];
+
+    static {
+        Random random = new Random(0x5eed);
+        for (int i = 0; i < ZOBRIST.length; i++) {
+            ZOBRIST[i] = random.nextLong();
+        }
+    }
+    private final PlacementEvaluator evaluator;
+    private final int setMask;
+    /**
+     * the info of a slot holds the removed lines + 1 in the low byte, the
+     * holes above and the {@link #REFERENCED} bit
+     */
+    private final long[] table;
+    private final byte[] hands;
+
+    /**
+     *
+     * @param evaluator the evaluator the ratings are made with
+     * @param capacity number of positions kept, rounded up to a power of
+     * two
+     */
+    public EvalCache(PlacementEvaluator evaluator, int capacity) {
+        this.evaluator = evaluator;
+        int sets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS - 1)) << 1;
+        setMask = sets - 1;
+        table = new long[sets * SET_LONGS];
+        hands = new byte[sets];
+        Metrics.getDefault().gauge(Metrics.EVAL_CACHE_BYTES).addAndGet(getFootprint());
+    }
+
+    public PlacementEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    /**
+     * Returns the number of positions the cache can hold.
+     * @return
+     */
+    public int getCapacity() {
+        return hands.length * WAYS;
+    }
+
+    /**
+     * Returns the bytes taken by the tables of the cache.
+     * @return
+     */
+    public long getFootprint() {
+        return table.length * 8L + hands.length;
+    }
+
+    /**
+     * Computes the Zobrist hash of the occupied cells of a board.
+     * @param board
+     * @return
+     */
+    public static long hash(Board board) {
+        long h = mix(((long) board.getWidth() << 32) | board.getHeight());
+        for (int y = 0; y < board.getHeight(); y++) {
+            long bits = board.rows[y];
+            int base = (y % ZOBRIST_ROWS) * Board.MAX_WIDTH;
+            while (bits != 0) {
+                h ^= ZOBRIST[base + Long.numberOfTrailingZeros(bits)];
+                bits &= bits - 1;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Combines the hash of a board with a position of a stone.
+     * @param boardHash see {@link #hash(Board)}
+     * @param type
+     * @param rotation
+     * @param hpos
+     * @return
+     */
+    public static long key(long boardHash, int type, int rotation, int hpos) {
+        long position = ((long) type * StoneCatalog.ROTATIONS + rotation) * 1024 + hpos + 512;
+        long key = mix(boardHash + position * 0x9E3779B97F4A7C15L);
+        //0 marks empty slots
+        return key != 0 ? key : 1;
+    }
+
+    /**
+     * Finalizer of splitmix64, spreads the bits of the value over the
+     * whole word.
+     * @param z
+     * @return
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Looks up a position.
+     * @param key see {@link #key(long, int, int, int)}
+     * @param info receives the removed lines, -1 if the stone doesn't fit,
+     * and the holes
+     * @return the rating or NaN if the position isn't cached
+     */
+    public double get(long key, int[] info) {
+        int base = ((int) key & setMask) * SET_LONGS;
+        for (int s = base; s < base + SET_LONGS; s += SLOT_LONGS) {
+            long rating = table[s + 1];
+            long slotInfo = table[s + 2];
+            if ((table[s] ^ rating ^ (slotInfo & ~REFERENCED)) == key) {
+                if ((slotInfo & REFERENCED) == 0) {
+                    table[s + 2] = slotInfo | REFERENCED;
+                }
+                info[0] = (int) (slotInfo & 0xFF) - 1;
+                info[1] = (int) (slotInfo >>> 8) & 0xFFFFFF;
+                return Double.longBitsToDouble(rating);
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Stores a position, a full set evicts the first slot not referenced
+     * since the clock hand passed it.
+     * @param key see {@link #key(long, int, int, int)}
+     * @param rating
+     * @param lines removed lines, -1 if the stone doesn't fit
+     * @param holes
+     */
+    public void put(long key, double rating, int lines, int holes) {
+        int set = (int) key & setMask;
+        int base = set * SET_LONGS;
+        int slot = -1;
+        for (int i = 0; i < WAYS && slot < 0; i++) {
+            int s = base + i * SLOT_LONGS;
+            if (table[s] == 0 || (table[s] ^ table[s + 1] ^ (table[s + 2] & ~REFERENCED)) == key) {
+                slot = s;
+            }
+        }
+        if (slot < 0) {
+            //a race on the hand only makes another slot the victim
+            int hand = hands[set] & 0xFF;
+            for (int i = 0; i < WAYS; i++) {
+                int s = base + (hand % WAYS) * SLOT_LONGS;
+                if ((table[s + 2] & REFERENCED) == 0) {
+                    break;
+                }
+                table[s + 2] &= ~REFERENCED;
+                hand++;
+            }
+            slot = base + (hand % WAYS) * SLOT_LONGS;
+            hands[set] = (byte) ((hand + 1) % WAYS);
+        }
+        long ratingBits = Double.doubleToRawLongBits(rating);
+        long slotInfo = (lines + 1) | ((long) holes << 8);
+        table[slot + 1] = ratingBits;
+        table[slot + 2] = slotInfo;
+        table[slot] = key ^ ratingBits ^ slotInfo;
+    }
+}
@@ -0,0 +1,356 @@
+package net.hextris;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Implements the Hextris game logic without any user interface.
+ *
+ * Keeps the play board, the preview board with the next stone, the stone
+ * currently falling down and the score. The engine doesn't depend on AWT or
+ * Swing so games can be played headless. Views register a
+ * {@link GameListener} to get notified about changes.
+ *
+ * The engine has no timer on its own, the owner calls {@link #step()}
+ * whenever the stone should fall one line, usually by a {@link GameLoop}.
+ *
+ * The engine isn't thread safe. Only one thread changes it, usually the one
+ * ticking its loop, other threads queue commands and show snapshots, see
+ * {@link BoardSnapshot}. A new game is started while the loop is stopped.
+ */
+public class GameEngine {
+
+    public static final int BOARD_WIDTH = 15;
+    public static final int BOARD_HEIGHT = 27;
+    public static final int PREVIEW_SIZE = 6;
+    private static final int MAX_LEVEL = 10;
+    private final Board board = new Board(BOARD_WIDTH, BOARD_HEIGHT);
+    private final Board previewBoard = new Board(PREVIEW_SIZE, PREVIEW_SIZE);
+    private final List<GameListener> listeners = new CopyOnWriteArrayList<GameListener>();
+    private final Random random;
+    private final PlacementSearch search = new PlacementSearch();
+    private LookaheadSearch lookahead;
+    private final Histogram decisionTime = Metrics.getDefault().histogram(Metrics.AI_DECISION);
+    private Stone currentStone;
+    private Stone nextStone;
+    private int lines;
+    private int stones;
+    private int level;
+    private int severity;
+    private long seed;
+    private volatile boolean gameOver = true;
+
+    public GameEngine() {
+        this(new Random());
+    }
+
+    /**
+     * Creates an engine whose stone sequences are determined by the seed.
+     * @param seed
+     */
+    public GameEngine(long seed) {
+        this(new Random(seed));
+    }
+
+    private GameEngine(Random random) {
+        this.random = random;
+        board.drawPlayField();
+    }
+
+    /**
+     * Starts a new game
+     *
+     * Resets the score, clears the board and creates a new stone.
+     * @param severity 0 (beginner) to 2 (expert)
+     * @param level start level
+     */
+    public void newGame(int severity, int level) {
+        newGame(severity, level, random.nextLong());
+    }
+
+    /**
+     * Starts a new game with a given stone sequence.
+     * @param severity 0 (beginner) to 2 (expert)
+     * @param level start level
+     * @param seed determines the stones of the game, see {@link #getSeed()}
+     */
+    public void newGame(int severity, int level, long seed) {
+        this.seed = seed;
+        random.setSeed(seed);
+        this.severity = severity;
+        this.level = level;
+        stones = 0;
+        lines = 0;
+        fireScoreChanged();
+        if (nextStone != null) {
+            nextStone.place(false);
+        }
+        board.drawPlayField();
+        nextStone = new Stone(previewBoard, severity, random);
+        gameOver = false;
+        createNextStone();
+    }
+
+    /**
+     * Tries to move down the stone. Places the stone one line below its current
+     * position if possible. If the stone hits a filled block the board is
+     * cleared of full lines and stone is released to the board.
+     * @return true if the stone was placed succesfully, false otherwise
+     */
+    public boolean step() {
+        if (gameOver || currentStone == null) {
+            return false;
+        }
+
+        if (currentStone.moveStone(Stone.MOVE_DOWN)) {
+            fireBoardChanged();
+            return true;
+        }
+
+        releaseCurrentStone();
+        addLines(board.removeFullLines());
+        createNextStone();
+        return false;
+    }
+
+    /**
+     * Moves the current stone.
+     * @param type one of the move types of {@link Stone}
+     * @return true if the stone was moved
+     */
+    public boolean move(int type) {
+        if (type == Stone.MOVE_DOWN) {
+            return step();
+        }
+        if (gameOver || currentStone == null) {
+            return false;
+        }
+
+        boolean res = currentStone.moveStone(type);
+        fireBoardChanged();
+        return res;
+    }
+
+    /**
+     * Moves the stone down, until he hits another stone.
+     */
+    public void drop() {
+        while (step() && !gameOver) {
+        }
+    }
+
+    /**
+     * Finds the best position of the current stone for the demo mode.
+     * The returned array is reused by the next call.
+     * @return see {@link PlacementSearch#search(Board, int, int)}
+     */
+    public int[] findBestPosition() {
+        long start = System.nanoTime();
+        currentStone.place(false);
+        int[] bp;
+        if (lookahead != null && nextStone != null) {
+            bp = lookahead.search(board, currentStone.getType(), currentStone.getRotation(),
+                    nextStone.getType());
+        } else {
+            bp = currentStone.getBestPosition(search);
+        }
+        currentStone.place(true);
+        decisionTime.record(System.nanoTime() - start);
+        return bp;
+    }
+
+    /**
+     * Lets the demo AI look at the next stone too.
+     * @param lookahead the search to use or null to rate the current stone
+     * only
+     */
+    public void setLookahead(LookaheadSearch lookahead) {
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * Sets the evaluator the demo AI rates the positions with.
+     * @param evaluator
+     */
+    public void setEvaluator(PlacementEvaluator evaluator) {
+        search.setEvaluator(evaluator);
+    }
+
+    /**
+     * Puts the current stone to the given column at the top of the board.
+     * @param x
+     */
+    public void moveToColumn(int x) {
+        if (gameOver || currentStone == null) {
+            return;
+        }
+
+        currentStone.place(false);
+        currentStone.setPosition(x, PlacementSearch.START_Y);
+        currentStone.place(true);
+        fireBoardChanged();
+    }
+
+    /**
+     * Rotates and moves the current stone to its best position at once.
+     */
+    public void autoPlace() {
+        if (gameOver || currentStone == null) {
+            return;
+        }
+
+        int[] bp = findBestPosition();
+        for (int i = 0; i < bp[1]; i++) {
+            move(Stone.ROTATE_LEFT);
+        }
+        moveToColumn(bp[0]);
+    }
+
+    /**
+     * Ends the game without notifying the listeners.
+     */
+    public void endGame() {
+        gameOver = true;
+    }
+
+    /**
+     * Creates a new random stone and places it at the top of the board.
+     */
+    private void createNextStone() {
+        int x = (board.getWidth() - 5) / 2;
+        int y = PlacementSearch.START_Y;
+        currentStone = new Stone(nextStone, board);
+        currentStone.setPosition(x, y);
+
+        if (currentStone.mayPlace(x, y)) {
+            nextStone.place(false);
+            nextStone = new Stone(previewBoard, severity, random);
+            nextStone.setPosition(0, 0);
+            nextStone.place(true);
+            currentStone.place(true);
+            firePreviewChanged();
+            fireBoardChanged();
+            fireStoneCreated();
+        } else {
+            gameOver = true;
+            fireGameOver();
+        }
+    }
+
+    /**
+     * The current stone is released to the board
+     * and thus can not bemoved anymore.
+     */
+    private void releaseCurrentStone() {
+        currentStone = null;
+        stones++;
+        if (stones > 20 * level && level < MAX_LEVEL) {
+            level++;
+        }
+        fireScoreChanged();
+    }
+
+    /**
+     * Increases the lines variable.
+     * @param number of lines to be added.
+     */
+    private void addLines(int l) {
+        if (l > 0) {
+            lines += l;
+            fireBoardChanged();
+            fireScoreChanged();
+        }
+    }
+
+    /**
+     * Returns the time between two steps at the current level.
+     * @return delay in milliseconds
+     */
+    public int getTickDelay() {
+        return 1800 / (level + 1) - 100;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public Board getPreviewBoard() {
+        return previewBoard;
+    }
+
+    public Stone getCurrentStone() {
+        return currentStone;
+    }
+
+    public Stone getNextStone() {
+        return nextStone;
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    public int getStones() {
+        return stones;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getSeverity() {
+        return severity;
+    }
+
+    /**
+     * Returns the seed of the current game. A new game with the same seed
+     * gets the same stones.
+     * @return
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    public void addGameListener(GameListener l) {
+        listeners.add(l);
+    }
+
+    public void removeGameListener(GameListener l) {
+        listeners.remove(l);
+    }
+
+    private void fireBoardChanged() {
+        for (GameListener l : listeners) {
+            l.boardChanged();
+        }
+    }
+
+    private void firePreviewChanged() {
+        for (GameListener l : listeners) {
+            l.previewChanged();
+        }
+    }
+
+    private void fireScoreChanged() {
+        for (GameListener l : listeners) {
+            l.scoreChanged();
+        }
+    }
+
+    private void fireStoneCreated() {
+        for (GameListener l : listeners) {
+            l.stoneCreated();
+        }
+    }
+
+    private void fireGameOver() {
+        for (GameListener l : listeners) {
+            l.gameOver();
+        }
+    }
+}
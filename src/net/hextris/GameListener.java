@@ -0,0 +1,36 @@
+package net.hextris;
+
+/**
+ * Receives notifications about changes of the game state from a
+ * {@link GameEngine}.
+ *
+ * The methods are called on the thread that drives the engine.
+ */
+public interface GameListener {
+
+    /**
+     * The play board has changed, e.g. the current stone moved or lines
+     * were removed.
+     */
+    void boardChanged();
+
+    /**
+     * A new next stone is shown on the preview board.
+     */
+    void previewChanged();
+
+    /**
+     * The number of lines, stones or the level has changed.
+     */
+    void scoreChanged();
+
+    /**
+     * A new stone was placed at the top of the board.
+     */
+    void stoneCreated();
+
+    /**
+     * The board is full and no new stone could be placed.
+     */
+    void gameOver();
+}
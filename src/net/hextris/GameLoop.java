@@ -0,0 +1,352 @@
+package net.hextris;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a {@link GameEngine} with a fixed logic tick.
+ *
+ * Input is queued from any thread with {@link #post(Command)} and executed
+ * at the start of the next tick, so it waits at most one tick. Gravity is
+ * accumulated in tick steps: the stone falls one line whenever the engine's
+ * tick delay has elapsed. Views are only notified through the engine's
+ * listeners, rendering isn't part of the loop. Tick listeners are called
+ * after every tick, e.g. to repaint everything a tick changed at once.
+ *
+ * In demo mode the loop moves every new stone to its best position, one
+ * rotation every few ticks.
+ *
+ * Usually the loop runs on a {@link ScheduledExecutorService}, but
+ * {@link #tick()} may also be called directly, e.g. to play a game headless
+ * at full speed. As the game only depends on the seed and the commands
+ * executed at each tick, a {@link ReplayWriter} can record the game.
+ */
+public class GameLoop {
+
+    /**
+     * length of a logic tick in milliseconds
+     */
+    public static final int TICK_MILLIS = 10;
+    /**
+     * ticks between two moves of the demo
+     */
+    private static final int DEMO_MOVE_TICKS = 50 / TICK_MILLIS;
+    private final GameEngine engine;
+    private final Queue<Command> input = new ConcurrentLinkedQueue<Command>();
+    private final List<Runnable> tickListeners = new CopyOnWriteArrayList<Runnable>();
+    /**
+     * nanoTime when the oldest input not yet executed was posted, 0 if none
+     */
+    private final AtomicLong pendingSince = new AtomicLong();
+    private Histogram tickTime = Metrics.getDefault().histogram(Metrics.TICK);
+    private final Histogram inputLatency = Metrics.getDefault().histogram(Metrics.INPUT_LATENCY);
+    private volatile boolean paused;
+    private volatile boolean demo;
+    private volatile long lastInputLatency;
+    private volatile long maxInputLatency;
+    private ScheduledFuture<?> future;
+    /**
+     * incremented by every start, ticks of an older schedule are ignored
+     */
+    private int generation;
+    /**
+     * milliseconds since the stone last fell
+     */
+    private int gravity;
+    /**
+     * ticks the game advanced since the last reset
+     */
+    private long ticks;
+    private ReplayWriter recorder;
+    //demo move of the current stone
+    private Stone demoStone;
+    private int demoRotations;
+    private int demoColumn;
+    private int demoWait;
+
+    /**
+     *
+     * @param engine the engine to drive
+     */
+    public GameLoop(GameEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Starts ticking on the executor. A running loop is stopped first, so
+     * a loop never has more than one schedule.
+     * @param executor
+     */
+    public synchronized void start(ScheduledExecutorService executor) {
+        stop();
+        reset();
+        final int gen = ++generation;
+        future = executor.scheduleAtFixedRate(new Runnable() {
+
+            public void run() {
+                synchronized (GameLoop.this) {
+                    if (gen != generation) {
+                        return;
+                    }
+                    try {
+                        tick();
+                    } catch (RuntimeException ex) {
+                        //an exception would cancel all further ticks
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops ticking. When this returns no tick is running anymore.
+     */
+    public synchronized void stop() {
+        generation++;
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    /**
+     * Returns whether the loop ticks on an executor.
+     * @return
+     */
+    public synchronized boolean isRunning() {
+        return future != null;
+    }
+
+    /**
+     * Forgets queued input, gravity and the demo move, e.g. for a new game.
+     */
+    public synchronized void reset() {
+        input.clear();
+        pendingSince.set(0);
+        gravity = 0;
+        ticks = 0;
+        demoStone = null;
+    }
+
+    /**
+     * Queues a command for the next tick.
+     * @param command
+     */
+    public void post(Command command) {
+        pendingSince.compareAndSet(0, System.nanoTime());
+        input.add(command);
+    }
+
+    /**
+     * Advances the game by one tick: executes the queued input, the demo
+     * move and gravity.
+     */
+    public synchronized void tick() {
+        if (tickTime == null) {
+            advance();
+        } else {
+            long start = System.nanoTime();
+            advance();
+            tickTime.record(System.nanoTime() - start);
+        }
+        for (Runnable l : tickListeners) {
+            l.run();
+        }
+    }
+
+    private void advance() {
+        long since = pendingSince.getAndSet(0);
+        if (since != 0) {
+            lastInputLatency = System.nanoTime() - since;
+            maxInputLatency = Math.max(maxInputLatency, lastInputLatency);
+            inputLatency.record(lastInputLatency);
+        }
+
+        if (paused || engine.isGameOver()) {
+            input.clear();
+            return;
+        }
+
+        long tick = ticks++;
+        Command command;
+        while ((command = input.poll()) != null) {
+            record(tick, command);
+            execute(command);
+        }
+
+        if (demo && playDemo()) {
+            return;
+        }
+
+        gravity += TICK_MILLIS;
+        if (gravity >= engine.getTickDelay()) {
+            gravity = 0;
+            engine.step();
+        }
+    }
+
+    /**
+     * Writes a command to the replay if one is recorded.
+     * @param tick
+     * @param command
+     */
+    private void record(long tick, Command command) {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.record(tick, command);
+        } catch (IOException ex) {
+            System.out.println("could not record replay");
+            recorder = null;
+        }
+    }
+
+    /**
+     * Executes one command.
+     * @param command
+     */
+    private void execute(Command command) {
+        switch (command) {
+            case MOVE_LEFT:
+                engine.move(Stone.MOVE_LEFT);
+                break;
+            case MOVE_RIGHT:
+                engine.move(Stone.MOVE_RIGHT);
+                break;
+            case ROTATE_LEFT:
+                engine.move(Stone.ROTATE_LEFT);
+                break;
+            case ROTATE_RIGHT:
+                engine.move(Stone.ROTATE_RIGHT);
+                break;
+            case MOVE_DOWN:
+                gravity = 0;
+                engine.step();
+                break;
+            case FALL_DOWN:
+                gravity = 0;
+                engine.drop();
+                break;
+            default:
+                System.out.println("unknown command: " + command);
+                break;
+        }
+    }
+
+    /**
+     * Moves a new stone to its best position, one step every few ticks.
+     * @return true while the stone is moved, gravity waits meanwhile
+     */
+    private boolean playDemo() {
+        Stone stone = engine.getCurrentStone();
+        if (stone == null) {
+            return false;
+        }
+        if (stone != demoStone) {
+            int[] bp = engine.findBestPosition();
+            demoStone = stone;
+            demoRotations = bp[1];
+            demoColumn = bp[1] < 0 ? Integer.MIN_VALUE : bp[0];
+            demoWait = DEMO_MOVE_TICKS;
+        }
+        if (demoColumn < PlacementSearch.MIN_X) {
+            return false;
+        }
+
+        if (--demoWait > 0) {
+            return true;
+        }
+        demoWait = DEMO_MOVE_TICKS;
+        if (demoRotations > 0) {
+            engine.move(Stone.ROTATE_LEFT);
+            demoRotations--;
+        } else {
+            engine.moveToColumn(demoColumn);
+            demoColumn = Integer.MIN_VALUE;
+        }
+        return true;
+    }
+
+    /**
+     * Adds a listener called on the loop's thread after every tick.
+     * @param l
+     */
+    public void addTickListener(Runnable l) {
+        tickListeners.add(l);
+    }
+
+    public void removeTickListener(Runnable l) {
+        tickListeners.remove(l);
+    }
+
+    /**
+     * Returns the number of ticks the game advanced, paused ticks aren't
+     * counted.
+     * @return
+     */
+    public synchronized long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Sets the histogram the tick durations are recorded to, e.g. null when
+     * the owner times many loops at once.
+     * @param tickTime
+     */
+    public synchronized void setTickHistogram(Histogram tickTime) {
+        this.tickTime = tickTime;
+    }
+
+    /**
+     * Records the executed commands, the header must already be written.
+     * @param recorder the replay or null to stop recording
+     */
+    public synchronized void setRecorder(ReplayWriter recorder) {
+        this.recorder = recorder;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isDemo() {
+        return demo;
+    }
+
+    /**
+     * Lets the loop move the stones.
+     * @param demo
+     */
+    public void setDemo(boolean demo) {
+        this.demo = demo;
+    }
+
+    /**
+     * Returns the time the input executed by the last tick was queued.
+     * @return nanoseconds
+     */
+    public long getLastInputLatency() {
+        return lastInputLatency;
+    }
+
+    /**
+     * Returns the longest time input was queued.
+     * @return nanoseconds
+     */
+    public long getMaxInputLatency() {
+        return maxInputLatency;
+    }
+}
@@ -1,21 +1,27 @@
 package net.hextris;
 
-import java.util.Vector;
 import java.awt.Color;
-import java.awt.Component;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.GridLayout;
 import java.awt.Image;
-import java.awt.Toolkit;
-import javax.swing.JFrame;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 /**
  * implements a Panel to display a hextris gameboard
  * paints the hexagons
+ *
+ * The board belongs to the thread driving the game. That thread calls
+ * {@link #repaintDirty()}, which publishes a {@link BoardSnapshot} of the
+ * board, and the panel only paints snapshots. The pixel positions of the
+ * cells are kept in a {@link Layout} which is replaced as a whole when the
+ * size of the hexagons changes.
  * @author fränk
  * @author Radek Varbuchta
  */
@@ -23,38 +29,92 @@ public class GamePanel extends JPanel {
 
     private static final long serialVersionUID = -9073308186742942554L;
     private static Context ctx = Context.getContext();
-    private static Vector<GamePanel> panels = new Vector<GamePanel>();
     private int panelWidth;
     private int panelHeight;
     private JLabel gameOverLbl;
 
     //some variables for hexagon drawing
-    private static int rh = 7;
+    private int rh;
     private int bh;
     private int hexHeight;
     //coordinates of hexagon corners
     private int hexWidth;
     private int[] xPoints = new int[7];
     private int[] yPoints = new int[7];
+    private volatile Layout layout;
+    private final Rectangle clip = new Rectangle();
     private Board board;
+    //used by the thread changing the board only
+    private Stone stone;
+    private long stoneCount;
+    private volatile Scene scene;
+    //the board without the current stone, used by the event dispatch thread only
+    private BufferedImage background;
+    private long backgroundStone = -1;
+    private Histogram paintTime;
+    //text shown above the board, e.g. the performance numbers
+    private volatile String[] overlay;
+    private final Rectangle overlayBounds = new Rectangle();
+    private static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 10);
+    private static final int OVERLAY_LINE = 11;
+
+    /**
+     * Pixel positions of the cells for one size of the hexagons.
+     */
+    private static final class Layout {
+
+        //top left corners of the hexagon images
+        final int[] cellX;
+        final int[] cellY;
+        final int[] columnOffset;
+        final Image[] sprites;
+        final int spriteWidth;
+        final int spriteHeight;
+        final int hexHeight;
+
+        Layout(int[] cellX, int[] cellY, int[] columnOffset, Image[] sprites,
+                int spriteWidth, int spriteHeight, int hexHeight) {
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.columnOffset = columnOffset;
+            this.sprites = sprites;
+            this.spriteWidth = spriteWidth;
+            this.spriteHeight = spriteHeight;
+            this.hexHeight = hexHeight;
+        }
+    }
+
+    /**
+     * A snapshot of the board and the number of the stone moving on it.
+     */
+    private static final class Scene {
+
+        final BoardSnapshot cells;
+        /**
+         * changes with the stone, the rest of the board only changes when a
+         * stone is released
+         */
+        final long stone;
+
+        Scene(BoardSnapshot cells, long stone) {
+            this.cells = cells;
+            this.stone = stone;
+        }
+    }
 
     /**
      *
-     * @param width number of hexagons horicontally
-     * @param height number of hexagons vertically
+     * @param board the board to display
      */
-    public GamePanel(int width, int height) {
+    public GamePanel(Board board) {
         super();
-        panels.add(this);
-        panelWidth = width;
-        panelHeight = height;
-        board = new Board(width, height);
+        panelWidth = board.getWidth();
+        panelHeight = board.getHeight();
+        this.board = board;
+        scene = new Scene(new BoardSnapshot(board, null), stoneCount);
 
         // get properties
-        Integer hexSize = hexSizeToInt(ctx.getHexSize());
-        if (hexSize != null) {
-            rh = hexSize;
-        }
+        rh = hexSizeToInt(ctx.getHexSize());
 
         initComponents();
         initialize();
@@ -89,10 +149,31 @@ public class GamePanel extends JPanel {
         xPoints[5] = cx + rh;
         xPoints[6] = xPoints[0];
 
+        int[] cellX = new int[panelWidth];
+        int[] columnOffset = new int[panelWidth];
+        for (int x = 0; x < panelWidth; x++) {
+            cellX[x] = xPoints[4] + x * hexWidth - hexWidth / 2 - rh;
+            columnOffset[x] = (x % 2) * (hexHeight / 2);
+        }
+        int[] cellY = new int[panelHeight];
+        for (int y = 0; y < panelHeight; y++) {
+            cellY[y] = yPoints[4] + y * hexHeight - bh;
+        }
+        Image[] sprites = SpriteCache.getSprites(rh == hexSizeToInt(Context.HexSize.BIG)
+                ? Context.HexSize.BIG : Context.HexSize.NORMAL);
+        int spriteWidth = 4 * rh;
+        int spriteHeight = hexHeight;
+        if (sprites[1] != null) {
+            spriteWidth = Math.max(spriteWidth, sprites[1].getWidth(null));
+            spriteHeight = Math.max(spriteHeight, sprites[1].getHeight(null));
+        }
+        layout = new Layout(cellX, cellY, columnOffset, sprites, spriteWidth, spriteHeight, hexHeight);
+
         //set panelsize
         int width = (panelWidth - 1) * hexWidth - rh + 2 * hexWidth;
         int height = panelHeight * hexHeight - rh - bh + hexHeight;
         Dimension dim = new Dimension(width, height);
+        background = null;
         setPreferredSize(dim);
         setMaximumSize(dim);
         setMinimumSize(dim);
@@ -105,78 +186,172 @@ public class GamePanel extends JPanel {
      */
     @Override
     protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
         super.paintComponent(g);
 
-        g.fillRect(0, 0, getWidth(), getHeight());
+        g.getClipBounds(clip);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
 
-        if (board != null) {
-            for (int x = 0; x < board.getWidth(); x++) {
-                int lineOffset = (x % 2) * (hexHeight / 2);
-                for (int y = 0; y < board.getHeight(); y++) {
-                    int colorId = board.field[y][x];
+        Layout l = layout;
+        Scene sc = scene;
+        BoardSnapshot cells = sc.cells;
+        if (cells.hasStone()) {
+            //the static part and the few cells of the stone
+            if (background == null || backgroundStone != sc.stone) {
+                updateBackground(l, cells);
+                backgroundStone = sc.stone;
+            }
+            g.drawImage(background, 0, 0, null);
+            for (int i = 0; i < cells.getStoneCellCount(); i++) {
+                int x = cells.getStoneX(i);
+                int y = cells.getStoneY(i);
+                if (x >= 0 && x < l.cellX.length && y >= 0 && y < l.cellY.length) {
+                    int colorId = cells.getField(x, y);
+                    if (colorId != 0) {
+                        g.drawImage(l.sprites[colorId], l.cellX[x], l.cellY[y] + l.columnOffset[x], null);
+                    }
+                }
+            }
+        } else {
+            //only the hexagons reaching into the clip
+            for (int x = 0; x < cells.getWidth(); x++) {
+                if (l.cellX[x] + l.spriteWidth <= clip.x || l.cellX[x] >= clip.x + clip.width) {
+                    continue;
+                }
+                int lineOffset = l.columnOffset[x];
+                for (int y = 0; y < cells.getHeight(); y++) {
+                    int py = l.cellY[y] + lineOffset;
+                    if (py + l.spriteHeight <= clip.y || py >= clip.y + clip.height) {
+                        continue;
+                    }
+                    int colorId = cells.getField(x, y);
                     if (colorId != 0) {
-                        int bx = x * hexWidth - hexWidth / 2 - rh;
-                        int by = y * hexHeight - bh;
-
-                        int[] xs = new int[7];
-                        int[] ys = new int[7];
-                        for (int i = 0; i < 7; i++) {
-                            xs[i] = xPoints[i] + bx;
-                            ys[i] = yPoints[i] + by + lineOffset;
-                        }
-
-                        String imgName = ctx.getHexSize() == Context.HexSize.NORMAL
-                                ? "brick.gif" : "brick_big.gif";
-                        Image img = Toolkit.getDefaultToolkit().getImage(this.getClass().getResource("/net/hextris/images/" + imgName));
-                        g.drawImage(img, xs[4], ys[4], this);
+                        g.drawImage(l.sprites[colorId], l.cellX[x], py, null);
                     }
                 }
             }
         }
+        if (paintTime != null) {
+            paintTime.record(System.nanoTime() - start);
+        }
+
+        String[] lines = overlay;
+        if (lines != null) {
+            g.setColor(new Color(0, 0, 0, 160));
+            g.fillRect(overlayBounds.x, overlayBounds.y, overlayBounds.width, overlayBounds.height);
+            g.setColor(Color.WHITE);
+            g.setFont(OVERLAY_FONT);
+            for (int i = 0; i < lines.length; i++) {
+                g.drawString(lines[i], overlayBounds.x + 3, overlayBounds.y + (i + 1) * OVERLAY_LINE);
+            }
+        }
     }
 
     /**
-     * @return
+     * Records the time of painting the board, the overlay not included.
+     * @param paintTime the histogram or null
      */
-    public Board getBoard() {
-        return board;
+    public void setPaintHistogram(Histogram paintTime) {
+        this.paintTime = paintTime;
     }
 
     /**
-     * Removes the full lines from the board and drops the lines above down.
-     * @return
+     * Shows lines of text in the top left corner above the board.
+     * @param lines the text or null to hide it
+     */
+    public void setOverlay(String[] lines) {
+        repaint(overlayBounds);
+        overlay = lines;
+        if (lines != null) {
+            overlayBounds.setBounds(2, 2, getWidth() - 4, lines.length * OVERLAY_LINE + 5);
+            repaint(overlayBounds);
+        }
+    }
+
+    /**
+     * Publishes a snapshot of the board and repaints the hexagons changed
+     * since the last call. Is called by the thread changing the board, e.g.
+     * once per game tick, so all changes of a tick result in a single
+     * snapshot and repaint request.
+     */
+    public void repaintDirty() {
+        if (board == null || !board.isDirty()) {
+            return;
+        }
+        scene = new Scene(new BoardSnapshot(board, stone), stoneCount);
+
+        Layout l = layout;
+        long columns = board.getDirtyColumns();
+        int x0 = Long.numberOfTrailingZeros(columns);
+        int x1 = Math.min(63 - Long.numberOfLeadingZeros(columns), l.cellX.length - 1);
+        int y0 = Math.max(board.getDirtyTop(), 0);
+        int y1 = Math.min(board.getDirtyBottom(), l.cellY.length - 1);
+        board.clearDirty();
+        if (x0 > x1 || y0 > y1) {
+            return;
+        }
+
+        int left = l.cellX[x0];
+        int top = l.cellY[y0];
+        repaint(left, top, l.cellX[x1] + l.spriteWidth - left,
+                l.cellY[y1] + l.hexHeight / 2 + l.spriteHeight - top);
+    }
+
+    /**
+     * Paints the board without the stone into the background image.
+     * @param l
+     * @param cells
      */
-    public int removeFullLines() {
-        int lines = 0;
-        for (int y = board.getHeight() - 2; y > 0; y--) {
-            if (board.lineFull(y)) {
-                board.clearLine(y);
-                repaint();
-                board.removeLine(y);
-                repaint();
-                lines++;
-                y++;
+    private void updateBackground(Layout l, BoardSnapshot cells) {
+        Dimension dim = getPreferredSize();
+        if (background == null) {
+            background = SpriteCache.createImage(dim.width, dim.height, Transparency.OPAQUE);
+        }
+
+        Graphics2D g = background.createGraphics();
+        //same color paintComponent fills the panel with
+        g.setColor(getForeground());
+        g.fillRect(0, 0, background.getWidth(), background.getHeight());
+        for (int x = 0; x < cells.getWidth(); x++) {
+            for (int y = 0; y < cells.getHeight(); y++) {
+                int colorId = cells.getField(x, y);
+                if (colorId != 0 && !cells.isStoneCell(x, y)) {
+                    g.drawImage(l.sprites[colorId], l.cellX[x], l.cellY[y] + l.columnOffset[x], null);
+                }
             }
         }
-        return lines;
+        g.dispose();
+    }
+
+    /**
+     * Sets the stone moving on the board, must be called by the thread
+     * changing the board. The rest of the board only changes when a stone
+     * is released, so it's kept in a background image which is painted
+     * again for every new stone. Without a stone every hexagon is painted.
+     * @param stone
+     */
+    public void setStone(Stone stone) {
+        this.stone = stone;
+        stoneCount++;
     }
 
     /**
-     * sets size of hexagons and repaints all panels
-     * @param size
+     * @return
      */
-    public static void setHexSize(Context.HexSize hexSize) {
+    public Board getBoard() {
+        return board;
+    }
+
+    /**
+     * sets size of hexagons, the window has to be packed afterwards
+     * @param hexSize
+     */
+    public void setHexSize(Context.HexSize hexSize) {
         int size = hexSizeToInt(hexSize);
         if (rh != size) {
             rh = size;
-            for (GamePanel panel : panels) {
-                panel.initialize();
-                Component c = panel;
-                while (c.getParent() != null) {
-                    c = c.getParent();
-                }
-                ((JFrame) c).pack();
-            }
+            initialize();
+            repaint();
         }
     }
 
@@ -0,0 +1,263 @@
+package net.hextris;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hosts many games in one JVM.
+ *
+ * A session is a {@link GameEngine} with its {@link GameLoop} and owns no
+ * thread. The sessions are spread over shards, one per worker thread. Every
+ * {@link GameLoop#TICK_MILLIS} a shard ticks all its sessions once, so the
+ * number of threads depends on the cores and not on the sessions. If a
+ * round takes longer than a tick the shard falls behind and the late
+ * rounds are counted, see {@link Metrics#SERVER_LATE_ROUNDS}.
+ *
+ * Sessions are opened, fed with input and closed from any thread.
+ */
+public class GameServer {
+
+    private static final long TICK_NANOS = GameLoop.TICK_MILLIS * 1000000L;
+    private final Shard[] shards;
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<Long, Session>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final Histogram roundTime = Metrics.getDefault().histogram(Metrics.SERVER_ROUND);
+    private final AtomicLong sessionTicks = Metrics.getDefault().counter(Metrics.SERVER_TICKS);
+    private final AtomicLong lateRounds = Metrics.getDefault().counter(Metrics.SERVER_LATE_ROUNDS);
+    private final AtomicLong sessionGauge = Metrics.getDefault().gauge(Metrics.SERVER_SESSIONS);
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * A game hosted by the server.
+     */
+    public class Session {
+
+        private final long id;
+        private final GameEngine engine;
+        private final GameLoop loop;
+        private volatile boolean closed;
+
+        private Session(long id, long seed) {
+            this.id = id;
+            engine = new GameEngine(seed);
+            loop = new GameLoop(engine);
+            //the shards time their rounds, not every single tick
+            loop.setTickHistogram(null);
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Starts a new game in this session, the queued input is dropped.
+         * @param severity 0 (beginner) to 2 (expert)
+         * @param level start level
+         * @param seed see {@link GameEngine#newGame(int, int, long)}
+         */
+        public void newGame(int severity, int level, long seed) {
+            synchronized (loop) {
+                loop.reset();
+                engine.newGame(severity, level, seed);
+            }
+        }
+
+        /**
+         * Queues input for the next tick of the session.
+         * @param command
+         */
+        public void post(Command command) {
+            loop.post(command);
+        }
+
+        /**
+         * Lets the server move the stones like the demo.
+         * @param demo
+         */
+        public void setDemo(boolean demo) {
+            loop.setDemo(demo);
+        }
+
+        public boolean isGameOver() {
+            return engine.isGameOver();
+        }
+
+        public int getLines() {
+            return engine.getLines();
+        }
+
+        public int getStones() {
+            return engine.getStones();
+        }
+
+        /**
+         * Returns the engine of the session. Its state may only be read
+         * while holding the lock of the loop, it's changed by the ticks.
+         * @return
+         */
+        public GameEngine getEngine() {
+            return engine;
+        }
+
+        public GameLoop getLoop() {
+            return loop;
+        }
+
+        /**
+         * Removes the session from the server, it isn't ticked anymore.
+         */
+        public void close() {
+            if (sessions.remove(id) != null) {
+                closed = true;
+                sessionGauge.decrementAndGet();
+            }
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+
+    /**
+     * The sessions ticked by one task.
+     */
+    private class Shard implements Runnable {
+
+        /**
+         * sessions opened since the last round
+         */
+        private final Queue<Session> opened = new ConcurrentLinkedQueue<Session>();
+        /**
+         * only used by the round
+         */
+        private final List<Session> ticked = new ArrayList<Session>();
+        /**
+         * nanoTime the next round should start at, 0 before the first one
+         */
+        private long due;
+
+        public void run() {
+            long start = System.nanoTime();
+            if (due != 0 && start - due > TICK_NANOS) {
+                lateRounds.incrementAndGet();
+            }
+            due = (due == 0 ? start : due) + TICK_NANOS;
+
+            Session s;
+            while ((s = opened.poll()) != null) {
+                ticked.add(s);
+            }
+            for (int i = 0; i < ticked.size(); i++) {
+                s = ticked.get(i);
+                if (!s.closed) {
+                    try {
+                        s.loop.tick();
+                        continue;
+                    } catch (RuntimeException ex) {
+                        //a broken game mustn't stop the other ones
+                        ex.printStackTrace();
+                        s.close();
+                    }
+                }
+                //closed, the last session takes its place
+                Session last = ticked.remove(ticked.size() - 1);
+                if (last != s) {
+                    ticked.set(i--, last);
+                }
+            }
+            sessionTicks.addAndGet(ticked.size());
+            roundTime.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     *
+     * @param threads number of worker threads resp. shards
+     */
+    public GameServer(int threads) {
+        shards = new Shard[threads];
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * Starts ticking the sessions.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        final AtomicInteger count = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(shards.length, new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hextris-server-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < shards.length; i++) {
+            //spread the rounds of the shards over the tick
+            long delay = TICK_NANOS + i * TICK_NANOS / shards.length;
+            scheduler.scheduleAtFixedRate(shards[i], delay, TICK_NANOS, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops ticking, when this returns no round is running anymore. The
+     * sessions are kept.
+     * @throws InterruptedException
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        scheduler = null;
+    }
+
+    /**
+     * Opens a session and starts a game in it.
+     * @param severity 0 (beginner) to 2 (expert)
+     * @param level start level
+     * @param seed determines the stones of the game
+     * @return
+     */
+    public Session openSession(int severity, int level, long seed) {
+        long id = nextId.incrementAndGet();
+        Session s = new Session(id, seed);
+        s.newGame(severity, level, seed);
+        sessions.put(id, s);
+        sessionGauge.incrementAndGet();
+        shards[(int) (id % shards.length)].opened.add(s);
+        return s;
+    }
+
+    /**
+     * Returns an open session.
+     * @param id
+     * @return the session or null if there is none with this id
+     */
+    public Session getSession(long id) {
+        return sessions.get(id);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public int getThreads() {
+        return shards.length;
+    }
+}
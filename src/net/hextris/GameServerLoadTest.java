@@ -0,0 +1,195 @@
+package net.hextris;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays many sessions of a {@link GameServer} with simulated players and
+ * reports how many sessions a core can host.
+ *
+ * A player plans a move for every stone, a few rotations and moves to one
+ * side, and sends one command of the plan at a time at a given rate. The
+ * plan ends with dropping the stone, a lost game is started again. The
+ * players are driven by a few threads of their own, so they take some of
+ * the CPU from the server.
+ *
+ * Usage: <code>java -cp hextris.jar net.hextris.GameServerLoadTest
+ * [-sessions n] [-threads n] [-drivers n] [-apm n] [-seconds n] [-demo]</code>
+ *
+ * With <code>-demo</code> the server moves the stones with the demo AI
+ * instead, there is no player input then.
+ */
+public class GameServerLoadTest {
+
+    private static final int WARMUP_SECONDS = 3;
+    private static final double TICK_NANOS = GameLoop.TICK_MILLIS * 1e6;
+
+    /**
+     * A simulated player of one session.
+     */
+    private static class Player {
+
+        final GameServer.Session session;
+        final Random random;
+        final Command[] plan = new Command[16];
+        int planLength;
+        int next;
+        long due;
+
+        Player(GameServer.Session session, long seed) {
+            this.session = session;
+            random = new Random(seed);
+        }
+
+        /**
+         * Sends the next command, plans the next stone first if needed.
+         * @return true if a command was sent
+         */
+        boolean act() {
+            if (session.isGameOver()) {
+                session.newGame(1, 1, random.nextLong());
+                planLength = 0;
+                return false;
+            }
+            if (next == planLength) {
+                planLength = 0;
+                int rotations = random.nextInt(StoneCatalog.ROTATIONS);
+                for (int i = 0; i < rotations; i++) {
+                    plan[planLength++] = Command.ROTATE_LEFT;
+                }
+                int moves = random.nextInt(13) - 6;
+                for (int i = 0; i < Math.abs(moves); i++) {
+                    plan[planLength++] = moves < 0 ? Command.MOVE_LEFT : Command.MOVE_RIGHT;
+                }
+                plan[planLength++] = Command.FALL_DOWN;
+                next = 0;
+            }
+            session.post(plan[next++]);
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sessionCount = 2000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int drivers = 1;
+        int apm = 120;
+        int seconds = 10;
+        boolean demo = false;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-demo")) {
+                demo = true;
+            } else if (i + 1 < args.length && args[i].equals("-sessions")) {
+                sessionCount = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("-drivers")) {
+                drivers = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("-apm")) {
+                apm = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("-seconds")) {
+                seconds = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        GameServer server = new GameServer(threads);
+        long heapBefore = usedHeap();
+        final Player[] players = new Player[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            GameServer.Session s = server.openSession(1, 1, i);
+            s.setDemo(demo);
+            players[i] = new Player(s, i);
+        }
+        long heapPerSession = (usedHeap() - heapBefore) / sessionCount;
+        server.start();
+
+        final long interval = TimeUnit.MINUTES.toNanos(1) / apm;
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS + seconds);
+        final int driverCount = demo ? 0 : drivers;
+        final AtomicLong commands = new AtomicLong();
+        final AtomicLong games = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(driverCount);
+        for (int d = 0; d < driverCount; d++) {
+            final int driver = d;
+            new Thread(new Runnable() {
+
+                public void run() {
+                    long start = System.nanoTime();
+                    //spread the players over the interval
+                    for (int i = driver; i < players.length; i += driverCount) {
+                        players[i].due = start + interval * i / players.length;
+                    }
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        for (int i = driver; i < players.length; i += driverCount) {
+                            Player p = players[i];
+                            if (p.due <= now) {
+                                p.due += interval;
+                                if (p.act()) {
+                                    commands.incrementAndGet();
+                                } else {
+                                    games.incrementAndGet();
+                                }
+                            }
+                        }
+                        try {
+                            Thread.sleep(GameLoop.TICK_MILLIS);
+                        } catch (InterruptedException ex) {
+                            break;
+                        }
+                    }
+                    done.countDown();
+                }
+            }, "player-" + d).start();
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(WARMUP_SECONDS));
+        Metrics metrics = Metrics.getDefault();
+        metrics.reset();
+        long commandsBefore = commands.get();
+        long gamesBefore = games.get();
+        long start = System.nanoTime();
+        if (demo) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        } else {
+            done.await();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        server.stop();
+
+        Histogram rounds = metrics.histogram(Metrics.SERVER_ROUND);
+        Histogram latency = metrics.histogram(Metrics.INPUT_LATENCY);
+        long ticks = metrics.counter(Metrics.SERVER_TICKS).get();
+        double busy = rounds.getSum() / (secs * 1e9 * threads);
+        double tickCost = ticks == 0 ? 0 : (double) rounds.getSum() / ticks;
+
+        System.out.println(String.format("%d sessions on %d threads, %d cores, %.1f s%s",
+                sessionCount, threads, Runtime.getRuntime().availableProcessors(), secs,
+                demo ? ", demo AI" : ", " + apm + " commands/min per player"));
+        System.out.println(String.format("round ms: p50 %.3f  p99 %.3f  max %.3f, %d late rounds",
+                rounds.getPercentile(50) / 1e6, rounds.getPercentile(99) / 1e6, rounds.getMax() / 1e6,
+                metrics.counter(Metrics.SERVER_LATE_ROUNDS).get()));
+        if (!demo) {
+            System.out.println(String.format("input latency ms: p50 %.2f  p99 %.2f  max %.2f, %.0f commands/s, %d new games",
+                    latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6, latency.getMax() / 1e6,
+                    (commands.get() - commandsBefore) / secs, games.get() - gamesBefore));
+        }
+        System.out.println(String.format("%.2f us per session tick, server busy %.0f%%: about %.0f sessions per core",
+                tickCost / 1e3, 100 * busy, tickCost == 0 ? 0 : TICK_NANOS / tickCost));
+        System.out.println(String.format("heap %.1f kB per session", heapPerSession / 1024.0));
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
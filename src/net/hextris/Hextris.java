@@ -6,33 +6,53 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.Font;
+import java.awt.Graphics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ResourceBundle;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.*;
 
 /**
  * Hextris main class
  * 
  * Implements the Controller part of the Hextris game.
- * Reacts on keyboard input and starts a thread for
- * moving the stone down after a certain amount of time.
+ * Reacts on keyboard input and runs a {@link GameLoop} which
+ * moves the stone down after a certain amount of time. The loop ticks on
+ * the shared {@link LoopExecutor}, a new game only restarts its schedule.
+ * The game logic itself is done by the {@link GameEngine}.
  *
  * @author fränk
  * @author Radek Varbuchta
  */
-public class Hextris extends JPanel implements Runnable {
+public class Hextris extends JPanel {
 
     private static final long serialVersionUID = -3267887732569843668L;
+    /**
+     * if this system property is true the time to the first frame is
+     * printed and the program exits, see {@link StartupBenchmark}
+     */
+    public static final String STARTUP_PROPERTY = "hextris.startup.exit";
+    /**
+     * printed with the time to the first frame
+     */
+    static final String FIRST_FRAME = "first frame";
+    private static final long START_NANOS = System.nanoTime();
+    private boolean painted;
+    /**
+     * key toggling the performance overlay
+     */
+    private static final int HUD_KEY = KeyEvent.VK_F3;
+    private static final int HUD_REFRESH_MILLIS = 250;
+    private Timer hudTimer;
+    private final AtomicLong keyPresses = Metrics.getDefault().counter(Metrics.KEY_PRESSES);
     private static ResourceBundle rb = java.util.ResourceBundle.getBundle("net/hextris/language");
-    private static final int NONE = 0;
-    private static final int MOVE_DOWN = 1;
-    private static final int FALL_DOWN = 2;
-    private int action = NONE;
-    private AtomicBoolean paused = new AtomicBoolean(false);
     private Context ctx = Context.getContext();
     private GamePanel playPanel;
     private GamePanel previewPanel;
@@ -44,18 +64,31 @@ public class Hextris extends JPanel implements Runnable {
     private JComboBox levelCB = null;
     private JButton buttonStart = null;
     private JButton buttonPause = null;
-    private Thread moverThread;
-    private Stone currentStone;
-    private Stone nextStone;
-    private int lines;
-    private int stones;
-    private int level;
-    private int severity;
-    private boolean gameOver;
+    private final GameEngine engine = new GameEngine();
+    private final GameLoop loop = new GameLoop(engine);
     private boolean demo = false;
     private boolean isApplet;
+    /**
+     * the last game played is recorded to this file
+     */
+    private static final String REPLAY_PATH = System.getProperty("user.home") + "/.hextris/last.replay";
+    private ReplayWriter replay;
+    /**
+     * receives the scores if a leaderboard is configured, see
+     * {@link LeaderboardClient#URL_PROPERTY}
+     */
+    private final LeaderboardClient leaderboard = LeaderboardClient.fromProperty();
+    private boolean scoreSubmitted;
     public static final boolean APPLET = true;
     public static final boolean DESKTOP = false;
+    /**
+     * positions of a stone the demo looks one stone ahead from
+     */
+    private static final int DEMO_BEAM_WIDTH = 8;
+    /**
+     * milliseconds the demo may think about a stone
+     */
+    private static final long DEMO_SEARCH_BUDGET = 40;
 
     public Hextris(boolean isApplet) {
         super();
@@ -63,42 +96,6 @@ public class Hextris extends JPanel implements Runnable {
         initialize();
     }
 
-    /**
-     * moverThread to move the stone down after a certain amount of time
-     * handles move down and fall down requests
-     */
-    public void run() {
-        while (moverThread == Thread.currentThread()) {
-            try {
-                Thread.sleep(1800 / (level + 1) - 100);
-            } catch (InterruptedException ex) {
-                // doesnt matter
-            }
-
-            if (paused.get()) {
-                continue;
-            }
-
-            if (gameOver || currentStone == null) {
-                continue;
-            }
-
-            switch (action) {
-                case FALL_DOWN:
-                    fallDown();
-                    break;
-                case MOVE_DOWN:
-                case NONE:
-                    moveDown();
-                    break;
-                default:
-                    System.out.println("no action: " + action);
-                    break;
-            }
-            action = NONE;
-        }
-    }
-
     /**
      * Initialize widgets and stuff.
      */
@@ -110,7 +107,8 @@ public class Hextris extends JPanel implements Runnable {
         }
 
         setLayout(new GridBagLayout());
-        playPanel = new GamePanel(15, 27);
+        playPanel = new GamePanel(engine.getBoard());
+        playPanel.setPaintHistogram(Metrics.getDefault().histogram(Metrics.FRAME));
         add(playPanel,
                 new GridBagConstraints(0, 0, 1, 10, 0.0, 0.0,
                 GridBagConstraints.NORTHWEST,
@@ -118,7 +116,7 @@ public class Hextris extends JPanel implements Runnable {
                 new Insets(0, 0, 0, 10),
                 0, 0));
 
-        previewPanel = new GamePanel(6, 6);
+        previewPanel = new GamePanel(engine.getPreviewBoard());
         JLabel nextLabel = new JLabel(rb.getString("Next:"));
         add(nextLabel,
                 new GridBagConstraints(1, 0, 1, 1, 0.0, 0.0,
@@ -226,11 +224,62 @@ public class Hextris extends JPanel implements Runnable {
         setVisible(true);
         setName("HextrisPane");
 
-        playPanel.getBoard().drawPlayField();
-        gameOver = true;
+        engine.addGameListener(new GameListener() {
+
+            public void boardChanged() {
+            }
+
+            public void previewChanged() {
+            }
+
+            public void scoreChanged() {
+                updateLabels(engine.getLevel(), engine.getStones(), engine.getLines());
+            }
+
+            public void stoneCreated() {
+                playPanel.setStone(engine.getCurrentStone());
+            }
+
+            public void gameOver() {
+                loop.stop();
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    public void run() {
+                        Hextris.this.gameOver();
+                    }
+                });
+            }
+        });
+        loop.addTickListener(new Runnable() {
+
+            public void run() {
+                playPanel.repaintDirty();
+                previewPanel.repaintDirty();
+            }
+        });
+        engine.setLookahead(new LookaheadSearch(new ForkJoinPool(), LinearEvaluator.getDefault(),
+                DEMO_BEAM_WIDTH, DEMO_SEARCH_BUDGET));
         setFocusable(true);
 
-        newGame(false, false);
+        //start the game once the window is up
+        SwingUtilities.invokeLater(new Runnable() {
+
+            public void run() {
+                newGame(false, false);
+            }
+        });
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!painted) {
+            painted = true;
+            if (Boolean.getBoolean(STARTUP_PROPERTY)) {
+                System.out.println(FIRST_FRAME + " " + (System.nanoTime() - START_NANOS) / 1000000 + " ms");
+                System.exit(0);
+            }
+        }
     }
 
     /**
@@ -242,36 +291,20 @@ public class Hextris extends JPanel implements Runnable {
      */
     protected void gameKeyPressed(KeyEvent e) {
         int kc = e.getKeyCode();
-
-        if (gameOver || demo) {
+        if (kc == HUD_KEY) {
+            toggleHud();
             return;
         }
-        if (currentStone == null) {
+
+        //the loop ignores input while there is no stone
+        if (engine.isGameOver() || demo) {
             return;
         }
 
-        if (kc == ctx.getKeyValue(Context.Key.MOVE_LEFT)) {
-            currentStone.moveStone(Stone.MOVE_LEFT);
-            playPanel.repaint();
-        } else if (kc == ctx.getKeyValue(Context.Key.MOVE_RIGHT)) {
-            currentStone.moveStone(Stone.MOVE_RIGHT);
-            playPanel.repaint();
-        } else if (kc == ctx.getKeyValue(Context.Key.ROTATE_LEFT)) {
-            currentStone.moveStone(Stone.ROTATE_LEFT);
-            playPanel.repaint();
-        } else if (kc == ctx.getKeyValue(Context.Key.ROTATE_RIGHT)) {
-            currentStone.moveStone(Stone.ROTATE_RIGHT);
-            playPanel.repaint();
-        } else if (kc == ctx.getKeyValue(Context.Key.MOVE_DOWN)) {
-            if (action == NONE) {
-                action = MOVE_DOWN;
-                moverThread.interrupt();
-            }
-        } else if (kc == ctx.getKeyValue(Context.Key.FALL_DOWN)) {
-            action = FALL_DOWN;
-            if (moverThread != null) {
-                moverThread.interrupt();
-            }
+        Command command = ctx.getCommand(kc);
+        if (command != null) {
+            keyPresses.incrementAndGet();
+            loop.post(command);
         }
     }
 
@@ -279,12 +312,14 @@ public class Hextris extends JPanel implements Runnable {
      * Starts a new game
      *
      * Resets the score, clears the board and creates a new stone.
-     * Starts the moverThread.
+     * Starts the game loop.
      */
     public void newGame(boolean demo, boolean showOptions) {
+        int severity;
+        int level;
         if (demo) {
             severity = 1;
-            setLevel(7);
+            level = 7;
         } else {
             if (showOptions) {
                 int option = JOptionPane.showOptionDialog(JOptionPane.getFrameForComponent(this),
@@ -297,115 +332,37 @@ public class Hextris extends JPanel implements Runnable {
                     return;
                 }
                 severity = severityCB.getSelectedIndex();
-                setLevel(levelCB.getSelectedIndex() + 1);
+                level = levelCB.getSelectedIndex() + 1;
             } else {
                 // default options
                 severity = 1;
-                setLevel(1);
+                level = 1;
             }
 
         }
 
         this.demo = demo;
-        setStones(0);
-        setLines(0);
-        if (nextStone != null) {
-            nextStone.place(false);
-        }
-        playPanel.getBoard().drawPlayField();
+        loop.stop();
+        finishReplay();
+        scoreSubmitted = false;
         playPanel.setGameOver(false);
-        nextStone = new Stone(previewPanel.getBoard(), severity);
-        createNextStone();
+        engine.newGame(severity, level);
+        if (!isApplet && !demo) {
+            startReplay();
+        }
         playPanel.repaint();
-        gameOver = false;
         setPaused(false);
-        moverThread = new Thread(this);
-        moverThread.start();
+        loop.setDemo(demo);
+        loop.start(LoopExecutor.getDefault());
         grabFocus();
     }
 
-    /**
-     * Creates a new random stone and places it at the top of the board.
-     */
-    private void createNextStone() {
-        currentStone = new Stone(nextStone, playPanel.getBoard());
-        currentStone.setPosition((playPanel.getPanelWidth() - 5) / 2, -1);
-
-        if (currentStone.mayPlace(currentStone.getPosition().x, currentStone.getPosition().y)) {
-            nextStone.place(false);
-            nextStone = new Stone(previewPanel.getBoard(), severity);
-            nextStone.setPosition(0, 0);
-            nextStone.place(true);
-            currentStone.place(true);
-            previewPanel.repaint();
-            playPanel.repaint();
-            if (demo) {
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException iex) {
-                }
-                currentStone.place(false);
-                int[] bp = currentStone.getBestPosition();
-                currentStone.place(true);
-
-                for (int i = 0; i < bp[1]; i++) {
-                    currentStone.moveStone(Stone.ROTATE_LEFT);
-                    playPanel.repaint();
-                    try {
-                        Thread.sleep(50);
-                    } catch (InterruptedException iex) {
-                    }
-                }
-                currentStone.place(false);
-                currentStone.setPosition(bp[0], -1);
-                currentStone.place(true);
-                int dx = bp[0] - currentStone.getPosition().x;
-                for (int i = 0; Math.abs(dx) > i; i++) {
-                    currentStone.moveStone(dx > 0 ? Stone.MOVE_RIGHT : Stone.MOVE_LEFT);
-                    playPanel.repaint();
-                    try {
-                        Thread.sleep(50);
-                    } catch (InterruptedException iex) {
-                    }
-                }
-            }
-        } else {
-            gameOver();
-        }
-    }
-
-    /**
-     * Tries to move down the stone. Places the stone one line below its current
-     * position if possible. If the stone hits a filled block the board is
-     * cleared of full lines and stone is released to the board.
-     * @return true if the stone was placed succesfully, false otherwise
-     */
-    private synchronized boolean moveDown() {
-        if (currentStone.moveStone(Stone.MOVE_DOWN)) {
-            playPanel.repaint();
-            return true;
-        }
-
-        releaseCurrentStone();
-        addLines(playPanel.removeFullLines());
-        createNextStone();
-        return false;
-    }
-
-    /**
-     * Moves the stone down, until he hits another stone.
-     */
-    private void fallDown() {
-        while (moveDown() && !gameOver) {
-        }
-    }
-
     /**
      * Pause/resume the game.
      */
     public boolean pause() {
-        setPaused(!paused.get());
-        return paused.get();
+        setPaused(!loop.isPaused());
+        return loop.isPaused();
     }
 
     /**
@@ -413,8 +370,8 @@ public class Hextris extends JPanel implements Runnable {
      * @param to pause or not
      */
     private void setPaused(boolean val) {
-        paused.set(val);
-        if (paused.get()) {
+        loop.setPaused(val);
+        if (val) {
             buttonPause.setText(rb.getString("Resume"));
         } else {
             buttonPause.setText(rb.getString("Pause"));
@@ -426,14 +383,16 @@ public class Hextris extends JPanel implements Runnable {
      * Called when the game is over.
      * Checks if the player gets into the highscore list. If so the name is
      * queried and the score added.
-     * Stops the moverThread.
+     * Stops the game loop.
      */
     public void gameOver() {
-        moverThread = null;
+        loop.stop();
+        finishReplay();
         playPanel.setGameOver(true);
-        gameOver = true;
+        engine.endGame();
         buttonStart.grabFocus();
 
+        int lines = engine.getLines();
         if (!isApplet) {
             HighScore highScore = initHighScore();
             if (highScore.isHighScore(lines)) {
@@ -453,6 +412,45 @@ public class Hextris extends JPanel implements Runnable {
                 }
             }
         }
+
+        if (leaderboard != null && !demo && !scoreSubmitted) {
+            String name = ctx.getLastName();
+            leaderboard.submit(name.length() > 0 ? name : "?", lines);
+        }
+        scoreSubmitted = true;
+    }
+
+    /**
+     * Starts recording the new game to {@link #REPLAY_PATH}.
+     */
+    private void startReplay() {
+        try {
+            File file = new File(REPLAY_PATH);
+            file.getParentFile().mkdirs();
+            replay = new ReplayWriter(new FileOutputStream(file), engine.getSeed(),
+                    engine.getSeverity(), engine.getLevel());
+            loop.setRecorder(replay);
+        } catch (IOException ex) {
+            System.out.println("could not record replay");
+        }
+    }
+
+    /**
+     * Writes the result of the game to the replay and closes it. The game
+     * loop must be stopped.
+     */
+    private void finishReplay() {
+        if (replay == null) {
+            return;
+        }
+        loop.setRecorder(null);
+        try {
+            replay.finish(loop.getTicks(), engine.getLines(), engine.getStones());
+            replay.close();
+        } catch (IOException ex) {
+            System.out.println("could not save replay");
+        }
+        replay = null;
     }
 
     /**
@@ -480,61 +478,86 @@ public class Hextris extends JPanel implements Runnable {
     }
 
     /**
-     * The current stone is released to the board
-     * and thus can not bemoved anymore.
+     * Shows or hides the frame, tick, AI and input times above the board.
      */
-    private void releaseCurrentStone() {
-        currentStone = null;
-        incStones();
-    }
+    private void toggleHud() {
+        if (hudTimer != null) {
+            hudTimer.stop();
+            hudTimer = null;
+            playPanel.setOverlay(null);
+            return;
+        }
 
-    private int getLevel() {
-        return level;
-    }
+        final Metrics metrics = Metrics.getDefault();
+        hudTimer = new Timer(HUD_REFRESH_MILLIS, new ActionListener() {
 
-    private void setLevel(int i) {
-        level = i;
-        levelLabel.setText(rb.getString("Level:") + " " + level);
-    }
+            private long lastFrames = metrics.histogram(Metrics.FRAME).getCount();
+            private long lastTime = System.nanoTime();
 
-    public void setMoverThread(Thread thread) {
-        moverThread = thread;
+            public void actionPerformed(ActionEvent e) {
+                long now = System.nanoTime();
+                long frames = metrics.histogram(Metrics.FRAME).getCount();
+                double fps = (frames - lastFrames) * 1e9 / (now - lastTime);
+                lastFrames = frames;
+                lastTime = now;
+                long hits = metrics.counter(Metrics.EVAL_CACHE_HITS).get();
+                long misses = metrics.counter(Metrics.EVAL_CACHE_MISSES).get();
+                playPanel.setOverlay(new String[]{
+                            "ms       p50   p99",
+                            hudLine("frame", metrics.histogram(Metrics.FRAME)),
+                            hudLine("tick", metrics.histogram(Metrics.TICK)),
+                            hudLine("ai", metrics.histogram(Metrics.AI_DECISION)),
+                            hudLine("input", metrics.histogram(Metrics.INPUT_LATENCY)),
+                            String.format("fps %.0f  keys %d", fps, metrics.counter(Metrics.KEY_PRESSES).get()),
+                            String.format("cache %.0f%% hits", 100.0 * hits / Math.max(1, hits + misses)),
+                            String.format("gc %d, %d ms", Metrics.getGcCount(), Metrics.getGcMillis())});
+            }
+        });
+        hudTimer.setInitialDelay(0);
+        hudTimer.start();
     }
 
-    /**
-     * Increases a numbers of stones used in the game.
-     */
-    private void incStones() {
-        setStones(++stones);
-        if (stones > 20 * level && level < 10) {
-            setLevel(getLevel() + 1);
-        }
+    private static String hudLine(String name, Histogram h) {
+        return String.format("%-6s%6.2f%6.2f", name, h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6);
     }
 
     /**
-     * Sets stones count to the given amount.
-     * @param stones count
+     * Sets the size of the hexagons of both boards, the window has to be
+     * packed afterwards.
+     * @param size
      */
-    private void setStones(int s) {
-        stones = s;
-        stonesLabel.setText(rb.getString("Stones:") + " " + stones);
+    public void setHexSize(Context.HexSize size) {
+        playPanel.setHexSize(size);
+        previewPanel.setHexSize(size);
     }
 
     /**
-     * Increases the lines variable.
-     * @param number of lines to be added.
+     * Stops the game loop for good, e.g. when the window is closed.
      */
-    private void addLines(int l) {
-        setLines(lines += l);
+    public void dispose() {
+        if (hudTimer != null) {
+            hudTimer.stop();
+        }
+        loop.stop();
+        if (leaderboard != null) {
+            leaderboard.close();
+        }
     }
 
     /**
-     * Sets lines count to the given amount.
-     * @param lines count
+     * Shows level, stones and lines of the running game. The numbers are
+     * read by the thread driving the game, the labels are set on the event
+     * dispatch thread.
      */
-    private void setLines(int lines) {
-        this.lines = lines;
-        linesLabel.setText(rb.getString("Lines:") + " " + lines);
+    private void updateLabels(final int level, final int stones, final int lines) {
+        SwingUtilities.invokeLater(new Runnable() {
+
+            public void run() {
+                levelLabel.setText(rb.getString("Level:") + " " + level);
+                stonesLabel.setText(rb.getString("Stones:") + " " + stones);
+                linesLabel.setText(rb.getString("Lines:") + " " + lines);
+            }
+        });
     }
 
     /**
@@ -571,6 +594,35 @@ public class Hextris extends JPanel implements Runnable {
     }
 
     public static void main(String[] args) {
-        new MainFrame(new Hextris(DESKTOP));
+        //decode the sprites while the EDT builds the window
+        Thread preload = new Thread(new Runnable() {
+
+            public void run() {
+                SpriteCache.getSprites(Context.getContext().getHexSize());
+            }
+        }, "hextris-preload");
+        preload.setDaemon(true);
+        preload.start();
+
+        final String metricsFile = System.getProperty(Metrics.FILE_PROPERTY);
+        if (metricsFile != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        Metrics.getDefault().write(new File(metricsFile));
+                    } catch (IOException ex) {
+                        System.out.println("could not write metrics to " + metricsFile);
+                    }
+                }
+            }, "hextris-metrics"));
+        }
+
+        SwingUtilities.invokeLater(new Runnable() {
+
+            public void run() {
+                new MainFrame(new Hextris(DESKTOP));
+            }
+        });
     }
 } 
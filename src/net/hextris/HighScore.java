@@ -2,9 +2,7 @@ package net.hextris;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.ResourceBundle;
 import java.util.logging.Level;
@@ -19,45 +17,30 @@ import org.apache.commons.io.LineIterator;
 /**
  * This class enables adding new high score and showing local list of
  * the highest scores.
+ *
+ * The scores are kept by a {@link ScoreStore} shared by all dialogs. It
+ * keeps <code>hextris.highscore.capacity</code> scores, the best ten of them
+ * are shown.
  * @author Radek Varbuchta
  */
 public class HighScore extends JDialog {
 
 	private static final long serialVersionUID = 1L;
 	
-	private class EntryComparator implements Comparator<Entry> {
-
-        public int compare(Entry e1, Entry e2) {
-            if (e1.lines < e2.lines) {
-                return -1;
-            } else if (e1.lines > e2.lines) {
-                return 1;
-            }
-            return 0;
-        }
-    }
-
-    private class Entry {
-
-        private String name;
-        private int lines;
-
-        public Entry(String name, int score) {
-            this.name = name;
-            this.lines = score;
-        }
-
-        @Override
-        public String toString() {
-            return lines + " " + name;
-        }
-    }
     /**
      * A path to the file where the highest scores are stored.
      */
-    private static final String path = System.getProperty("user.home") + "/.hextris/highscore.list";
-    private static final int SCORES_CAPACITY = 10;
-    private final List<Entry> scores = new ArrayList<Entry>(SCORES_CAPACITY);
+    private static final String path = System.getProperty("user.home") + "/.hextris/highscore.dat";
+    /**
+     * the text file of older versions, imported once
+     */
+    private static final String LEGACY_PATH = System.getProperty("user.home") + "/.hextris/highscore.list";
+    public static final String CAPACITY_PROPERTY = "hextris.highscore.capacity";
+    /**
+     * number of scores shown
+     */
+    private static final int SCORES_SHOWN = 10;
+    private static ScoreStore store;
     private static ResourceBundle rb = java.util.ResourceBundle.getBundle("net/hextris/language");
 
     /** Creates new form HighScore */
@@ -167,36 +150,44 @@ public class HighScore extends JDialog {
 }//GEN-LAST:event_jButtonOkActionPerformed
 
     /**
-     * Loads the high score list from the permanent storage.
+     * Opens the high score list from the permanent storage.
      */
-    private void load() {
+    private static synchronized void load() {
+        if (store != null) {
+            return;
+        }
+        int capacity = Integer.getInteger(CAPACITY_PROPERTY, SCORES_SHOWN);
         File file = new File(path);
-        LineIterator it = null;
         try {
-            file.createNewFile();
-            it = FileUtils.lineIterator(file);
-            while (it.hasNext()) {
-                String line = it.nextLine();
-                String[] chunks = line.split(" ", 2);
-                scores.add(new Entry(chunks[1], Integer.valueOf(chunks[0])));
+            file.getParentFile().mkdirs();
+            store = new ScoreStore(file, Math.max(capacity, SCORES_SHOWN));
+            File legacy = new File(LEGACY_PATH);
+            if (store.size() == 0 && legacy.exists()) {
+                importLegacy(legacy);
             }
         } catch (IOException ex) {
             Logger.getLogger(HighScore.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            LineIterator.closeQuietly(it);
         }
     }
 
     /**
-     * Saves the high score list to the permanent storage.
+     * Adds the scores of the text file of older versions to the store.
+     * @param file
+     * @throws IOException
      */
-    private void save() {
-        Collections.sort(scores, Collections.reverseOrder(new EntryComparator()));
-        File file = new File(path);
+    private static void importLegacy(File file) throws IOException {
+        LineIterator it = null;
         try {
-            FileUtils.writeLines(file, scores);
-        } catch (IOException ex) {
-            Logger.getLogger(HighScore.class.getName()).log(Level.SEVERE, null, ex);
+            it = FileUtils.lineIterator(file);
+            while (it.hasNext()) {
+                String line = it.nextLine();
+                String[] chunks = line.split(" ", 2);
+                if (chunks.length == 2) {
+                    store.add(chunks[1], Integer.valueOf(chunks[0]));
+                }
+            }
+        } finally {
+            LineIterator.closeQuietly(it);
         }
     }
 
@@ -204,13 +195,14 @@ public class HighScore extends JDialog {
      * Updates data in the table.
      */
     private void updateTable() {
-        Collections.sort(scores, Collections.reverseOrder(new EntryComparator()));
         TableModel model = jTable.getModel();
         int position = 1;
-        for (Entry e : scores) {
+        List<ScoreStore.Entry> scores = store != null ? store.getTop(SCORES_SHOWN)
+                : Collections.<ScoreStore.Entry>emptyList();
+        for (ScoreStore.Entry e : scores) {
             model.setValueAt(position + ".", position - 1, 0);
-            model.setValueAt(e.name, position - 1, 1);
-            model.setValueAt(e.lines, position - 1, 2);
+            model.setValueAt(e.getName(), position - 1, 1);
+            model.setValueAt(e.getLines(), position - 1, 2);
             position++;
         }
         jTable.setBackground(getBackground());
@@ -218,22 +210,6 @@ public class HighScore extends JDialog {
         jTable.setModel(model);
     }
 
-    /**
-     * Returns the index in the scores list of entry with minimal
-     * number of lines.
-     * @return index in the scores list
-     */
-    private int getMinEntryIdx() {
-        int min = 0;
-        for (int i = 1; i < scores.size(); i++) {
-            if (scores.get(i).lines < scores.get(min).lines) {
-                min = i;
-            }
-
-        }
-        return min;
-    }
-
     /**
      * Checks whether the given number of lines is high enough
      * to go tothe high score list.
@@ -241,11 +217,7 @@ public class HighScore extends JDialog {
      * @return true=high enought, false otherwise
      */
     public boolean isHighScore(int lines) {
-        int minEntryIdx = getMinEntryIdx();
-        if (scores.size() == SCORES_CAPACITY && lines <= scores.get(minEntryIdx).lines) {
-            return false;
-        }
-        return true;
+        return store != null && store.isHighScore(lines);
     }
 
     /**
@@ -259,12 +231,14 @@ public class HighScore extends JDialog {
             return false;
         }
 
-        if (scores.size() == SCORES_CAPACITY) {
-            scores.remove(getMinEntryIdx());
+        try {
+            if (!store.add(name, lines)) {
+                return false;
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(HighScore.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
         }
-
-        scores.add(new Entry(name, lines));
-        save();
         updateTable();
 
         return true;
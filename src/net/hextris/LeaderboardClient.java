@@ -0,0 +1,171 @@
+package net.hextris;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Submits scores to a {@link LeaderboardServer}.
+ *
+ * {@link #submit(String, int)} only queues the score. A background thread
+ * sends the queued scores in batches, so a game never waits for the
+ * server. Scores that can't be sent are dropped.
+ */
+public class LeaderboardClient {
+
+    /**
+     * system property with the URL of the leaderboard, e.g.
+     * <code>http://localhost:8765/scores</code>
+     */
+    public static final String URL_PROPERTY = "hextris.leaderboard";
+    private static final int MAX_BATCH = 500;
+    private final URL url;
+    private final Queue<String> queue = new ConcurrentLinkedQueue<String>();
+    private final ScheduledExecutorService sender;
+
+    /**
+     *
+     * @param url the scores URL of the server
+     * @param flushMillis time between two batches
+     */
+    public LeaderboardClient(URL url, long flushMillis) {
+        this.url = url;
+        sender = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hextris-leaderboard");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sender.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                flush();
+            }
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a client for the URL given by {@link #URL_PROPERTY}.
+     * @return the client or null if no leaderboard is configured
+     */
+    public static LeaderboardClient fromProperty() {
+        String url = System.getProperty(URL_PROPERTY);
+        if (url == null || url.length() == 0) {
+            return null;
+        }
+        try {
+            return new LeaderboardClient(new URL(url), 1000);
+        } catch (IOException ex) {
+            System.out.println("invalid leaderboard URL " + url);
+            return null;
+        }
+    }
+
+    /**
+     * Queues a score for the next batch.
+     * @param name
+     * @param lines
+     */
+    public void submit(String name, int lines) {
+        queue.add(lines + " " + name.replace('\n', ' ').replace('\r', ' '));
+    }
+
+    /**
+     * Sends the queued scores. Is called by the background thread.
+     */
+    public void flush() {
+        while (!queue.isEmpty()) {
+            StringBuilder batch = new StringBuilder();
+            String s;
+            int n = 0;
+            while (n < MAX_BATCH && (s = queue.poll()) != null) {
+                batch.append(s).append('\n');
+                n++;
+            }
+            try {
+                post(url, batch.toString());
+            } catch (IOException ex) {
+                System.out.println("could not submit " + n + " scores: " + ex.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends the remaining scores and stops the background thread.
+     */
+    public void close() {
+        sender.shutdown();
+        try {
+            sender.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Posts a batch of <code>lines name</code> lines.
+     * @param url
+     * @param body
+     * @return the answer of the server
+     * @throws IOException
+     */
+    static String post(URL url, String body) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        con.setRequestMethod("POST");
+        con.setDoOutput(true);
+        con.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+        byte[] bytes = body.getBytes(LeaderboardServer.UTF8);
+        OutputStream out = con.getOutputStream();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        if (con.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("server answered " + con.getResponseCode());
+        }
+        return read(con.getInputStream());
+    }
+
+    /**
+     * Fetches the best scores.
+     * @param url
+     * @param n
+     * @return <code>lines name</code> strings
+     * @throws IOException
+     */
+    static List<String> getTop(URL url, int n) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(url, url.getPath() + "?n=" + n).openConnection();
+        String body = read(con.getInputStream());
+        return Arrays.asList(body.isEmpty() ? new String[0] : body.split("\n"));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+            return new String(bytes.toByteArray(), LeaderboardServer.UTF8);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.hextris;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Submits random scores from many simulated clients to a leaderboard and
+ * reports the submissions per second and the request latencies.
+ *
+ * Usage: <code>java -cp hextris.jar net.hextris.LeaderboardLoadTest
+ * [-url url | -embedded] [-clients n] [-batch n] [-seconds n]</code>
+ *
+ * With <code>-embedded</code> a server is started in the same process on a
+ * free port.
+ */
+public class LeaderboardLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:" + LeaderboardServer.DEFAULT_PORT + "/scores";
+        boolean embedded = false;
+        int clients = 32;
+        int batch = 20;
+        int seconds = 10;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-embedded")) {
+                embedded = true;
+            } else if (i + 1 < args.length && args[i].equals("-url")) {
+                url = args[++i];
+            } else if (i + 1 < args.length && args[i].equals("-clients")) {
+                clients = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("-batch")) {
+                batch = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("-seconds")) {
+                seconds = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        LeaderboardServer server = null;
+        if (embedded) {
+            server = new LeaderboardServer(100000);
+            server.start(0, Runtime.getRuntime().availableProcessors());
+            url = "http://localhost:" + server.getPort() + "/scores";
+        }
+
+        final URL target = new URL(url);
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        final int batchSize = batch;
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final long[][] latencies = new long[clients][];
+        final int[] counts = new int[clients];
+        final CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            final int client = c;
+            new Thread(new Runnable() {
+
+                public void run() {
+                    Random random = new Random(client);
+                    long[] lat = new long[1024];
+                    int n = 0;
+                    while (System.nanoTime() < end) {
+                        StringBuilder body = new StringBuilder();
+                        for (int i = 0; i < batchSize; i++) {
+                            body.append(random.nextInt(1000)).append(" client").append(client).append('\n');
+                        }
+                        long t0 = System.nanoTime();
+                        try {
+                            LeaderboardClient.post(target, body.toString());
+                            submitted.addAndGet(batchSize);
+                        } catch (IOException ex) {
+                            errors.incrementAndGet();
+                        }
+                        if (n == lat.length) {
+                            lat = Arrays.copyOf(lat, 2 * n);
+                        }
+                        lat[n++] = System.nanoTime() - t0;
+                    }
+                    latencies[client] = lat;
+                    counts[client] = n;
+                    done.countDown();
+                }
+            }, "load-" + c).start();
+        }
+        done.await();
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        int total = 0;
+        for (int n : counts) {
+            total += n;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, pos, counts[c]);
+            pos += counts[c];
+        }
+        Arrays.sort(all);
+
+        System.out.println(String.format("%d clients, batches of %d: %.0f submissions/s, %.0f requests/s, %d errors",
+                clients, batch, submitted.get() / secs, total / secs, errors.get()));
+        if (total > 0) {
+            System.out.println(String.format("latency ms: p50 %.2f  p90 %.2f  p99 %.2f  max %.2f",
+                    all[total / 2] / 1e6, all[total * 9 / 10] / 1e6, all[total * 99 / 100] / 1e6,
+                    all[total - 1] / 1e6));
+        }
+        List<String> top = LeaderboardClient.getTop(target, 3);
+        System.out.println("top: " + top);
+        if (server != null) {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package net.hextris;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A leaderboard shared by all games on a machine, served over HTTP on the
+ * loopback interface.
+ *
+ * The scores are kept in a {@link ConcurrentSkipListMap} ordered by lines,
+ * so many clients can submit at the same time without locking. The list is
+ * cut to its capacity after every insert. The protocol is plain text:
+ * <ul>
+ * <li><code>POST /scores</code> with one <code>lines name</code> line per
+ * score, answers <code>ok accepted</code></li>
+ * <li><code>GET /scores?n=10</code> answers the best scores as
+ * <code>lines name</code> lines</li>
+ * </ul>
+ *
+ * Usage: <code>java -cp hextris.jar net.hextris.LeaderboardServer
+ * [-port n] [-capacity n] [-threads n]</code>
+ */
+public class LeaderboardServer {
+
+    public static final int DEFAULT_PORT = 8765;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * at most this many scores are answered
+     */
+    private static final int MAX_TOP = 1000;
+
+    /**
+     * Key of a score, best first and equal scores by arrival.
+     */
+    private static final class Score implements Comparable<Score> {
+
+        final int lines;
+        final long seq;
+
+        Score(int lines, long seq) {
+            this.lines = lines;
+            this.seq = seq;
+        }
+
+        public int compareTo(Score o) {
+            if (lines != o.lines) {
+                return lines > o.lines ? -1 : 1;
+            }
+            return seq < o.seq ? -1 : (seq > o.seq ? 1 : 0);
+        }
+    }
+    private final ConcurrentSkipListMap<Score, String> scores = new ConcurrentSkipListMap<Score, String>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong seq = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+    private final int capacity;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     *
+     * @param capacity number of scores kept
+     */
+    public LeaderboardServer(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds a score if it's high enough.
+     * @param name
+     * @param lines
+     * @return true if added
+     */
+    public boolean submit(String name, int lines) {
+        submitted.incrementAndGet();
+        if (size.get() >= capacity) {
+            Map.Entry<Score, String> last = scores.lastEntry();
+            if (last != null && lines <= last.getKey().lines) {
+                return false;
+            }
+        }
+
+        scores.put(new Score(lines, seq.getAndIncrement()), name);
+        if (size.incrementAndGet() > capacity) {
+            if (scores.pollLastEntry() != null) {
+                size.decrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the best scores as <code>lines name</code> strings.
+     * @param n
+     * @return
+     */
+    public List<String> getTop(int n) {
+        List<String> res = new ArrayList<String>();
+        Iterator<Map.Entry<Score, String>> it = scores.entrySet().iterator();
+        while (it.hasNext() && res.size() < n) {
+            Map.Entry<Score, String> e = it.next();
+            res.add(e.getKey().lines + " " + e.getValue());
+        }
+        return res;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the number of scores submitted, accepted or not.
+     * @return
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Starts serving on the loopback interface.
+     * @param port the port or 0 for any free one
+     * @param threads number of request threads
+     * @throws IOException
+     */
+    public void start(int port, int threads) throws IOException {
+        //headers and body of small answers are separate writes, without
+        //this every request waits for the delayed ACK of the client
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 256);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/scores", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if ("POST".equals(exchange.getRequestMethod())) {
+                        handleSubmit(exchange);
+                    } else if ("GET".equals(exchange.getRequestMethod())) {
+                        handleTop(exchange);
+                    } else {
+                        respond(exchange, 405, "method not allowed\n");
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleSubmit(HttpExchange exchange) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), UTF8));
+        int accepted = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] chunks = line.split(" ", 2);
+            if (chunks.length < 2) {
+                continue;
+            }
+            try {
+                if (submit(chunks[1], Integer.parseInt(chunks[0]))) {
+                    accepted++;
+                }
+            } catch (NumberFormatException ex) {
+                respond(exchange, 400, "invalid score: " + line + "\n");
+                return;
+            }
+        }
+        respond(exchange, 200, "ok " + accepted + "\n");
+    }
+
+    private void handleTop(HttpExchange exchange) throws IOException {
+        int n = 10;
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null && query.startsWith("n=")) {
+            try {
+                n = Math.min(Integer.parseInt(query.substring(2)), MAX_TOP);
+            } catch (NumberFormatException ex) {
+                respond(exchange, 400, "invalid query: " + query + "\n");
+                return;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String s : getTop(n)) {
+            sb.append(s).append('\n');
+        }
+        respond(exchange, 200, sb.toString());
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int capacity = 100000;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            if (args[i].equals("-port")) {
+                port = Integer.parseInt(value);
+            } else if (args[i].equals("-capacity")) {
+                capacity = Integer.parseInt(value);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(value);
+            } else {
+                System.out.println("unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        LeaderboardServer server = new LeaderboardServer(capacity);
+        server.start(port, threads);
+        System.out.println("leaderboard on http://localhost:" + server.getPort() + "/scores");
+    }
+}
@@ -0,0 +1,167 @@
+package net.hextris;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Rates a board by a weighted sum of simple features of the stack.
+ *
+ * The features are computed from the column index of the {@link Board}, so
+ * an evaluation takes O(width + height) and allocates nothing. The weights
+ * can be loaded from a properties file with one entry per feature, e.g.
+ * <code>holes=-4.0</code>. The default evaluator reads the file given by the
+ * system property <code>hextris.weights</code> if it's set.
+ */
+public class LinearEvaluator implements PlacementEvaluator {
+
+    /**
+     * Features of a board, the weights are given in this order.
+     */
+    public enum Feature {
+
+        /** sum of the heights of the inner columns */
+        AGGREGATE_HEIGHT,
+        /** empty cells below the top of their column */
+        HOLES,
+        /** sum of the depths of columns lower than both neighbours */
+        WELLS,
+        /** sum of the height differences of neighbouring columns */
+        BUMPINESS,
+        /** lines removed by the stone */
+        LINES,
+        /** changes between empty and occupied cells along the rows */
+        ROW_TRANSITIONS
+    }
+    public static final String WEIGHTS_PROPERTY = "hextris.weights";
+    private static final double[] DEFAULT_WEIGHTS = {-0.4, -8.0, -0.4, -0.3, 1.5, -0.4};
+    private static PlacementEvaluator defaultEvaluator;
+    private final double[] weights;
+
+    /**
+     * Evaluator with the built-in weights.
+     */
+    public LinearEvaluator() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    /**
+     *
+     * @param weights one weight per {@link Feature}
+     */
+    public LinearEvaluator(double[] weights) {
+        if (weights.length != Feature.values().length) {
+            throw new IllegalArgumentException("expected " + Feature.values().length + " weights");
+        }
+        this.weights = weights.clone();
+    }
+
+    /**
+     * Returns the evaluator used if none is given, see
+     * {@link #WEIGHTS_PROPERTY}.
+     * @return
+     */
+    public static synchronized PlacementEvaluator getDefault() {
+        if (defaultEvaluator == null) {
+            String path = System.getProperty(WEIGHTS_PROPERTY);
+            defaultEvaluator = new LinearEvaluator();
+            if (path != null) {
+                try {
+                    defaultEvaluator = load(new File(path));
+                } catch (IOException ex) {
+                    System.out.println("could not load weights from " + path);
+                }
+            }
+        }
+        return defaultEvaluator;
+    }
+
+    /**
+     * Loads the weights from a properties file, missing features get the
+     * built-in weight.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static LinearEvaluator load(File file) throws IOException {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+
+        double[] weights = DEFAULT_WEIGHTS.clone();
+        for (Feature f : Feature.values()) {
+            String value = props.getProperty(f.name().toLowerCase());
+            if (value != null) {
+                try {
+                    weights[f.ordinal()] = Double.parseDouble(value.trim());
+                } catch (NumberFormatException ex) {
+                    throw new IOException("invalid weight of " + f + ": " + value);
+                }
+            }
+        }
+        return new LinearEvaluator(weights);
+    }
+
+    /**
+     * Stores the weights to a properties file.
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        Properties props = new Properties();
+        for (Feature f : Feature.values()) {
+            props.setProperty(f.name().toLowerCase(), Double.toString(weights[f.ordinal()]));
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            props.store(out, "Hextris AI weights");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns a copy of the weights.
+     * @return
+     */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    public double evaluate(Board board, int lines) {
+        int width = board.getWidth();
+        int aggregateHeight = 0;
+        int wells = 0;
+        for (int x = 1; x < width - 1; x++) {
+            int h = board.getColumnHeight(x);
+            aggregateHeight += h - 1;
+            int neighbour = Math.min(board.getColumnHeight(x - 1), board.getColumnHeight(x + 1));
+            if (neighbour > h) {
+                wells += neighbour - h;
+            }
+        }
+
+        //transitions between neighbouring cells of the rows above the floor
+        long pairs = (1L << (width - 1)) - 1;
+        int transitions = 0;
+        for (int y = 0; y < board.getHeight() - 1; y++) {
+            long row = board.rows[y];
+            transitions += Long.bitCount((row ^ (row >>> 1)) & pairs);
+        }
+
+        return weights[0] * aggregateHeight
+                + weights[1] * board.getHoleCount()
+                + weights[2] * wells
+                + weights[3] * board.getBumpiness()
+                + weights[4] * lines
+                + weights[5] * transitions;
+    }
+}
@@ -0,0 +1,248 @@
+package net.hextris;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the best position of the current stone by looking one stone ahead.
+ *
+ * All positions of the current stone are rated first. The best
+ * <code>beamWidth</code> of them are expanded in parallel on a
+ * {@link ForkJoinPool}: for each one the best position of the next stone
+ * is searched on the resulting board. The position with the best board after
+ * both stones wins.
+ *
+ * Branches not started when the time budget is used up are skipped, so a
+ * move takes about the budget at most. If no branch finished, the best
+ * position of the current stone alone is taken.
+ *
+ * The positions rated are kept in an {@link EvalCache}. The branches rate
+ * the positions of the next stone, the search for the next stone finds the
+ * ones on the board it's actually placed on in the cache.
+ *
+ * A lookahead search isn't thread safe, but several of them may share a
+ * pool and a cache.
+ */
+public class LookaheadSearch {
+
+    /**
+     * positions kept by the cache a search creates itself
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1 << 13;
+    private final ForkJoinPool pool;
+    private final PlacementEvaluator evaluator;
+    private final EvalCache cache;
+    private final int beamWidth;
+    private final long budgetNanos;
+    private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
+    private final int[] result = new int[4];
+    private final PlacementSearch firstPly;
+    private Board scratch;
+    //positions of the current stone
+    private int count;
+    private int[] hpos = new int[0];
+    private int[] rots = new int[0];
+    private double[] ratings = new double[0];
+    private Integer[] order = new Integer[0];
+    private final Comparator<Integer> byRating = new Comparator<Integer>() {
+
+        public int compare(Integer a, Integer b) {
+            return Double.compare(ratings[b], ratings[a]);
+        }
+    };
+
+    /**
+     *
+     * @param pool pool the branches are evaluated on
+     * @param evaluator rates the boards
+     * @param beamWidth number of positions of the current stone expanded
+     * @param budgetMillis time budget per search, 0 for no limit
+     */
+    public LookaheadSearch(ForkJoinPool pool, PlacementEvaluator evaluator, int beamWidth, long budgetMillis) {
+        this(pool, evaluator, beamWidth, budgetMillis, new EvalCache(evaluator, DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+     *
+     * @param pool pool the branches are evaluated on
+     * @param evaluator rates the boards
+     * @param beamWidth number of positions of the current stone expanded
+     * @param budgetMillis time budget per search, 0 for no limit
+     * @param cache cache of the ratings, may be shared with other searches
+     * of the same evaluator, or null
+     */
+    public LookaheadSearch(ForkJoinPool pool, PlacementEvaluator evaluator, int beamWidth, long budgetMillis,
+            EvalCache cache) {
+        this.pool = pool;
+        this.evaluator = evaluator;
+        this.beamWidth = beamWidth;
+        this.budgetNanos = budgetMillis * 1000000L;
+        this.cache = cache;
+        this.firstPly = new PlacementSearch(evaluator);
+        firstPly.setCache(cache);
+    }
+
+    /**
+     * Per thread search buffers of the branches.
+     */
+    private class Worker {
+
+        final PlacementSearch search = new PlacementSearch(evaluator);
+        Board board;
+
+        Worker() {
+            search.setCache(cache);
+        }
+    }
+
+    /**
+     * Expands one position of the current stone.
+     */
+    private class Branch extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Board board;
+        private final int type;
+        private final int idx;
+        private final int nextType;
+        private final long deadline;
+        boolean done;
+        double rating;
+
+        Branch(Board board, int type, int idx, int nextType, long deadline) {
+            this.board = board;
+            this.type = type;
+            this.idx = idx;
+            this.nextType = nextType;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected void compute() {
+            if (System.nanoTime() > deadline) {
+                return;
+            }
+
+            Worker w = workers.get();
+            if (w.board == null || w.board.getWidth() != board.getWidth()
+                    || w.board.getHeight() != board.getHeight()) {
+                w.board = new Board(board.getWidth(), board.getHeight());
+            }
+            w.search.drop(board, type, rots[idx], hpos[idx], w.board);
+            //the removed lines and the overflow of the current stone
+            //aren't seen on the board after the next stone, keep them
+            double carry = ratings[idx] - evaluator.evaluate(w.board, 0);
+            w.search.search(w.board, nextType, 0);
+            rating = w.search.getBestRating() + carry;
+            done = true;
+        }
+    }
+
+    /**
+     * Finds the best position of a stone that isn't placed on the board.
+     * @param board
+     * @param type type of the current stone
+     * @param rotation current rotation of the stone
+     * @param nextType type of the next stone
+     * @return see {@link PlacementSearch#search(Board, int, int)}, the array
+     * is reused by the next search
+     */
+    public int[] search(Board board, int type, int rotation, int nextType) {
+        long deadline = budgetNanos > 0 ? System.nanoTime() + budgetNanos : Long.MAX_VALUE;
+        Arrays.fill(result, -1);
+        collectPositions(board, type, rotation);
+        if (count == 0) {
+            return result;
+        }
+
+        //expand the best positions in parallel
+        Arrays.sort(order, 0, count, byRating);
+        int width = Math.min(beamWidth, count);
+        final Branch[] branches = new Branch[width];
+        for (int i = 0; i < width; i++) {
+            branches[i] = new Branch(board, type, order[i], nextType, deadline);
+        }
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(branches);
+        } else {
+            pool.invoke(new RecursiveAction() {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(branches);
+                }
+            });
+        }
+
+        int best = order[0];
+        double bestRating = Double.NEGATIVE_INFINITY;
+        for (Branch b : branches) {
+            if (b.done && b.rating > bestRating) {
+                bestRating = b.rating;
+                best = b.idx;
+            }
+        }
+
+        int lines = firstPly.drop(board, type, rots[best], hpos[best], scratch);
+        result[0] = hpos[best];
+        result[1] = (rots[best] - rotation + StoneCatalog.ROTATIONS) % StoneCatalog.ROTATIONS;
+        result[2] = scratch.getHoleCount();
+        result[3] = lines;
+        return result;
+    }
+
+    /**
+     * Rates all positions of the current stone.
+     * @param board
+     * @param type
+     * @param rotation
+     */
+    private void collectPositions(Board board, int type, int rotation) {
+        if (scratch == null || scratch.getWidth() != board.getWidth()
+                || scratch.getHeight() != board.getHeight()) {
+            scratch = new Board(board.getWidth(), board.getHeight());
+        }
+        int max = StoneCatalog.ROTATIONS * (board.getWidth() - PlacementSearch.MIN_X);
+        if (hpos.length < max) {
+            hpos = new int[max];
+            rots = new int[max];
+            ratings = new double[max];
+            order = new Integer[max];
+        }
+
+        count = 0;
+        long boardHash = firstPly.hashForCache(board);
+        int tried = 0;
+        for (int r = 0; r < StoneCatalog.ROTATIONS; r++) {
+            int rot = (rotation + r) % StoneCatalog.ROTATIONS;
+            int shape = 1 << StoneCatalog.getShapeId(type, rot);
+            if ((tried & shape) != 0) {
+                continue;
+            }
+            tried |= shape;
+            for (int x = PlacementSearch.MIN_X; x < board.getWidth() - 1; x++) {
+                double rating = firstPly.ratePosition(board, boardHash, type, rot, x, scratch);
+                if (firstPly.getLastLines() < 0) {
+                    continue;
+                }
+                hpos[count] = x;
+                rots[count] = rot;
+                ratings[count] = rating;
+                order[count] = count;
+                count++;
+            }
+        }
+        firstPly.flushCacheStats();
+    }
+}
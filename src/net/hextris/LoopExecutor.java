@@ -0,0 +1,102 @@
+package net.hextris;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executor the {@link GameLoop}s of the game tick on.
+ *
+ * All games share one scheduler with a fixed number of threads, so
+ * starting games doesn't start threads. On a JVM with virtual threads
+ * (Java 21 and newer) the scheduler runs on virtual threads, otherwise on
+ * daemon platform threads. A cancelled tick is removed from the queue at
+ * once, so restarting games quickly doesn't pile up cancelled ticks.
+ */
+public final class LoopExecutor {
+
+    /**
+     * if this system property is false, platform threads are used even if
+     * the JVM has virtual threads
+     */
+    public static final String VIRTUAL_PROPERTY = "hextris.virtualThreads";
+    private static final int MAX_THREADS = 4;
+    private static ScheduledExecutorService executor;
+    private static boolean virtual;
+
+    private LoopExecutor() {
+    }
+
+    /**
+     * Returns the shared executor, it's created on first use.
+     * @return
+     */
+    public static synchronized ScheduledExecutorService getDefault() {
+        if (executor == null) {
+            int threads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+            ThreadFactory factory = virtualThreadFactory("hextris-loop-");
+            virtual = factory != null;
+            if (factory == null) {
+                factory = platformThreadFactory("hextris-loop-");
+            }
+            ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor(threads, factory);
+            e.setRemoveOnCancelPolicy(true);
+            executor = e;
+        }
+        return executor;
+    }
+
+    /**
+     * Returns whether the shared executor runs on virtual threads.
+     * @return
+     */
+    public static synchronized boolean isVirtual() {
+        getDefault();
+        return virtual;
+    }
+
+    /**
+     * Creates a factory of daemon threads.
+     * @param prefix name of the threads, a number is appended
+     * @return
+     */
+    public static ThreadFactory platformThreadFactory(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Creates a factory of virtual threads. The API is looked up by
+     * reflection as the game is built for older JVMs.
+     * @param prefix name of the threads, a number is appended
+     * @return the factory or null if the JVM has no virtual threads or they
+     * are switched off by {@link #VIRTUAL_PROPERTY}
+     */
+    public static ThreadFactory virtualThreadFactory(String prefix) {
+        if ("false".equals(System.getProperty(VIRTUAL_PROPERTY))) {
+            return null;
+        }
+        try {
+            //Thread.ofVirtual().name(prefix, 1).factory()
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object b = Thread.class.getMethod("ofVirtual").invoke(null);
+            b = builder.getMethod("name", String.class, long.class).invoke(b, prefix, 1L);
+            return (ThreadFactory) builder.getMethod("factory").invoke(b);
+        } catch (ClassNotFoundException ex) {
+            return null;
+        } catch (NoSuchMethodException ex) {
+            return null;
+        } catch (Exception ex) {
+            System.out.println("could not create virtual threads: " + ex);
+            return null;
+        }
+    }
+}
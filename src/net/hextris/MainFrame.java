@@ -33,12 +33,7 @@ public class MainFrame extends JFrame {
      * Create widgets and stuff.
      */
     public void initialize() {
-        try {
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
+        //the look and feel is set by Hextris already
         this.setContentPane(this.hextris);
         this.setResizable(false);
         this.setDefaultCloseOperation(javax.swing.JFrame.EXIT_ON_CLOSE);
@@ -137,7 +132,7 @@ public class MainFrame extends JFrame {
     @Override
     public void dispose() {
         super.dispose();
-        hextris.setMoverThread(null);
+        hextris.dispose();
     }
 
     /**
@@ -147,6 +142,7 @@ public class MainFrame extends JFrame {
         PrefsDlg dlg = new PrefsDlg(JOptionPane.getFrameForComponent(this));
         dlg.setLocationRelativeTo(this);
         dlg.setVisible(true);
+        hextris.setHexSize(ctx.getHexSize());
         this.pack();
     }
 
@@ -182,7 +178,8 @@ public class MainFrame extends JFrame {
                 "rotate clockwise - " + KeyEvent.getKeyText(ctx.getKeyValue(Context.Key.ROTATE_RIGHT)) + " or Up\n" +
                 "rotate counterclockwise - " + KeyEvent.getKeyText(ctx.getKeyValue(Context.Key.ROTATE_LEFT)) + "\n" +
                 "move down - " + KeyEvent.getKeyText(ctx.getKeyValue(Context.Key.MOVE_DOWN)) + " or Down\n" +
-                "fall down - " + KeyEvent.getKeyText(ctx.getKeyValue(Context.Key.FALL_DOWN)) + " or Space\n\n" //"Score:\n" +
+                "fall down - " + KeyEvent.getKeyText(ctx.getKeyValue(Context.Key.FALL_DOWN)) + " or Space\n" +
+                "performance overlay - F3\n\n" //"Score:\n" +
                 //"move down - level x severity\n" +
                 //"fall down - level x severity x 2 x lines\n" +
                 //"stone - 10 x level x severity\n" +
@@ -0,0 +1,236 @@
+package net.hextris;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A registry of named counters, gauges and latency histograms.
+ *
+ * The game records the time of painting a frame, of a logic tick, of an AI
+ * decision and from a key press to its move. The numbers are shown by
+ * the performance overlay of {@link Hextris} and can be written to a file
+ * in the Prometheus text format or as CSV. Durations are recorded in
+ * nanoseconds and exported in milliseconds resp. seconds.
+ */
+public class Metrics {
+
+    /** painting the game board */
+    public static final String FRAME = "frame";
+    /** one tick of the {@link GameLoop} */
+    public static final String TICK = "tick";
+    /** finding the best position of a stone */
+    public static final String AI_DECISION = "ai_decision";
+    /** from posting a command until the loop executes it */
+    public static final String INPUT_LATENCY = "input_latency";
+    /** key presses bound to a command */
+    public static final String KEY_PRESSES = "key_presses";
+    /** positions rated by the {@link EvalCache} */
+    public static final String EVAL_CACHE_HITS = "eval_cache_hits";
+    /** positions not found in the {@link EvalCache} */
+    public static final String EVAL_CACHE_MISSES = "eval_cache_misses";
+    /** bytes of all evaluation caches created */
+    public static final String EVAL_CACHE_BYTES = "eval_cache_bytes";
+    /** one tick of all sessions of a {@link GameServer} shard */
+    public static final String SERVER_ROUND = "server_round";
+    /** ticks of single sessions done by the {@link GameServer} */
+    public static final String SERVER_TICKS = "server_ticks";
+    /** shard rounds started more than a tick late */
+    public static final String SERVER_LATE_ROUNDS = "server_late_rounds";
+    /** open sessions of all game servers */
+    public static final String SERVER_SESSIONS = "server_sessions";
+    /**
+     * if this system property is set, the metrics are written to the file
+     * it names when the program ends, as CSV if the name ends with .csv
+     */
+    public static final String FILE_PROPERTY = "hextris.metrics";
+    private static final Metrics DEFAULT = new Metrics();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final double[] PERCENTILES = {50, 90, 99};
+    private final ConcurrentSkipListMap<String, AtomicLong> counters = new ConcurrentSkipListMap<String, AtomicLong>();
+    private final ConcurrentSkipListMap<String, AtomicLong> gauges = new ConcurrentSkipListMap<String, AtomicLong>();
+    private final ConcurrentSkipListMap<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+
+    /**
+     * Returns the registry the game records to.
+     * @return
+     */
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the counter of the given name, it's created if needed.
+     * @param name
+     * @return
+     */
+    public AtomicLong counter(String name) {
+        return get(counters, name);
+    }
+
+    /**
+     * Returns the gauge of the given name, it's created if needed. Unlike a
+     * counter a gauge may go down and isn't reset.
+     * @param name
+     * @return
+     */
+    public AtomicLong gauge(String name) {
+        return get(gauges, name);
+    }
+
+    private static AtomicLong get(ConcurrentSkipListMap<String, AtomicLong> map, String name) {
+        AtomicLong c = map.get(name);
+        if (c == null) {
+            c = new AtomicLong();
+            AtomicLong old = map.putIfAbsent(name, c);
+            if (old != null) {
+                c = old;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns the histogram of the given name, it's created if needed.
+     * @param name
+     * @return
+     */
+    public Histogram histogram(String name) {
+        Histogram h = histograms.get(name);
+        if (h == null) {
+            h = new Histogram();
+            Histogram old = histograms.putIfAbsent(name, h);
+            if (old != null) {
+                h = old;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Returns the number of garbage collections since the JVM started.
+     * @return
+     */
+    public static long getGcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    /**
+     * Returns the time spent in garbage collection since the JVM started.
+     * @return milliseconds
+     */
+    public static long getGcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionTime());
+        }
+        return n;
+    }
+
+    /**
+     * Forgets all recorded values.
+     */
+    public void reset() {
+        for (AtomicLong c : counters.values()) {
+            c.set(0);
+        }
+        for (Histogram h : histograms.values()) {
+            h.reset();
+        }
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format, histograms as
+     * summaries in seconds.
+     * @param out
+     * @throws IOException
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+            String name = "hextris_" + e.getKey() + "_total";
+            out.write("# TYPE " + name + " counter\n");
+            out.write(name + " " + e.getValue().get() + "\n");
+        }
+        for (Map.Entry<String, AtomicLong> e : gauges.entrySet()) {
+            String name = "hextris_" + e.getKey();
+            out.write("# TYPE " + name + " gauge\n");
+            out.write(name + " " + e.getValue().get() + "\n");
+        }
+        out.write("# TYPE hextris_gc_collections_total counter\n");
+        out.write("hextris_gc_collections_total " + getGcCount() + "\n");
+        out.write("# TYPE hextris_gc_seconds_total counter\n");
+        out.write("hextris_gc_seconds_total " + format(getGcMillis() / 1e3) + "\n");
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            String name = "hextris_" + e.getKey() + "_seconds";
+            Histogram h = e.getValue();
+            out.write("# TYPE " + name + " summary\n");
+            for (double p : PERCENTILES) {
+                out.write(name + "{quantile=\"" + p / 100 + "\"} " + format(h.getPercentile(p) / 1e9) + "\n");
+            }
+            out.write(name + "_sum " + format(h.getSum() / 1e9) + "\n");
+            out.write(name + "_count " + h.getCount() + "\n");
+        }
+    }
+
+    /**
+     * Writes the metrics as CSV, one line per metric. Counters and gauges
+     * only have a count.
+     * @param out
+     * @throws IOException
+     */
+    public void writeCsv(Writer out) throws IOException {
+        out.write("metric,count,mean_ms,p50_ms,p90_ms,p99_ms,max_ms\n");
+        for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+            out.write(e.getKey() + "," + e.getValue().get() + ",,,,,\n");
+        }
+        for (Map.Entry<String, AtomicLong> e : gauges.entrySet()) {
+            out.write(e.getKey() + "," + e.getValue().get() + ",,,,,\n");
+        }
+        out.write("gc_collections," + getGcCount() + ",,,,,\n");
+        out.write("gc_millis," + getGcMillis() + ",,,,,\n");
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            Histogram h = e.getValue();
+            out.write(e.getKey() + "," + h.getCount() + "," + format(h.getMean() / 1e6));
+            for (double p : PERCENTILES) {
+                out.write("," + format(h.getPercentile(p) / 1e6));
+            }
+            out.write("," + format(h.getMax() / 1e6) + "\n");
+        }
+    }
+
+    /**
+     * Writes the metrics to a file, as CSV if its name ends with .csv and
+     * in the Prometheus text format otherwise.
+     * @param file
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+        try {
+            if (file.getName().endsWith(".csv")) {
+                writeCsv(out);
+            } else {
+                writePrometheus(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String format(double d) {
+        return String.format(Locale.US, "%.6f", d);
+    }
+}
@@ -0,0 +1,111 @@
+package net.hextris;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts new games as fast as possible, like a kiosk whose visitors keep
+ * pressing the new game button, and checks that the games don't leak
+ * threads and that a stopped loop doesn't tick anymore.
+ *
+ * Every session has a thread of its own that stops its loop, starts a new
+ * demo game and lets it run for up to a few ticks, over and over. The
+ * loops tick on the {@link LoopExecutor}. The number of threads is sampled
+ * meanwhile. The test fails if a tick happens while its loop is stopped or
+ * if the number of threads keeps growing.
+ *
+ * Usage: <code>java -cp hextris.jar net.hextris.NewGameStressTest
+ * [-sessions n] [-games n]</code>
+ */
+public class NewGameStressTest {
+
+    /**
+     * threads a JVM may start on its own meanwhile, e.g. for the JIT
+     */
+    private static final int THREAD_SLACK = 4;
+
+    public static void main(String[] args) throws Exception {
+        int sessions = 8;
+        int gamesPerSession = 2000;
+
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 < args.length && args[i].equals("-sessions")) {
+                sessions = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("-games")) {
+                gamesPerSession = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("unknown option: " + args[i]);
+                return;
+            }
+        }
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        LoopExecutor.getDefault();
+        final int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        final int games = gamesPerSession;
+        final AtomicLong ticks = new AtomicLong();
+        final AtomicLong staleTicks = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(sessions);
+        long start = System.nanoTime();
+        for (int s = 0; s < sessions; s++) {
+            final int session = s;
+            new Thread(new Runnable() {
+
+                public void run() {
+                    Random random = new Random(session);
+                    GameEngine engine = new GameEngine(session);
+                    final GameLoop loop = new GameLoop(engine);
+                    final boolean[] stopped = {true};
+                    loop.addTickListener(new Runnable() {
+
+                        public void run() {
+                            ticks.incrementAndGet();
+                            //the flag is only written while holding the lock of the loop
+                            if (stopped[0]) {
+                                staleTicks.incrementAndGet();
+                            }
+                        }
+                    });
+                    loop.setDemo(true);
+                    for (int g = 0; g < games; g++) {
+                        loop.stop();
+                        synchronized (loop) {
+                            stopped[0] = true;
+                        }
+                        engine.newGame(1, 7, random.nextLong());
+                        synchronized (loop) {
+                            loop.start(LoopExecutor.getDefault());
+                            stopped[0] = false;
+                        }
+                        try {
+                            Thread.sleep(random.nextInt(3 * GameLoop.TICK_MILLIS));
+                        } catch (InterruptedException ex) {
+                            break;
+                        }
+                    }
+                    loop.stop();
+                    done.countDown();
+                }
+            }, "kiosk-" + s).start();
+        }
+        done.await();
+        double secs = (System.nanoTime() - start) / 1e9;
+        int threadsAfter = threads.getThreadCount();
+
+        System.out.println(String.format("%d sessions, %d new games in %.1f s, %d ticks, %s threads",
+                sessions, (long) sessions * games, secs, ticks.get(),
+                LoopExecutor.isVirtual() ? "virtual" : "platform"));
+        System.out.println(String.format("threads: %d before, peak %d with the %d sessions, %d after",
+                threadsBefore, threads.getPeakThreadCount(), sessions, threadsAfter));
+        System.out.println("ticks of stopped loops: " + staleTicks.get());
+        if (staleTicks.get() > 0 || threadsAfter > threadsBefore + THREAD_SLACK) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+    }
+}
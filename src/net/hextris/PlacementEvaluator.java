@@ -0,0 +1,21 @@
+package net.hextris;
+
+/**
+ * Rates boards for the demo AI.
+ *
+ * The {@link PlacementSearch} places the stone at every possible position
+ * on a scratch board, removes the full lines and lets the evaluator rate the
+ * result. Implementations are called very often, they should be fast and
+ * must not keep a reference to the board. An evaluator may be shared by
+ * several searches running in parallel.
+ */
+public interface PlacementEvaluator {
+
+    /**
+     * Rates a board after a stone was placed and the full lines removed.
+     * @param board
+     * @param lines number of lines the stone removed
+     * @return rating, higher is better
+     */
+    double evaluate(Board board, int lines);
+}
@@ -0,0 +1,298 @@
+package net.hextris;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the best position of a stone for the demo AI.
+ *
+ * Every rotation of the stone is dropped straight down from the top of the
+ * board in every column. The stone is placed on a scratch board, full lines
+ * are removed and the result is rated by a {@link PlacementEvaluator}.
+ *
+ * Rotations with the same cells as one tried before are skipped. With an
+ * {@link EvalCache} for the evaluator, positions rated before on the same
+ * board are taken from the cache without dropping the stone.
+ *
+ * A search keeps all scratch buffers it needs, so it allocates nothing once
+ * it's created. A search isn't thread safe, every thread needs its own one.
+ */
+public class PlacementSearch {
+
+    /**
+     * row where new stones appear and where the demo moves them from
+     */
+    public static final int START_Y = -1;
+    /**
+     * leftmost horizontal position tried, the left columns of a stone's
+     * field are usually empty
+     */
+    static final int MIN_X = -2;
+    private static final int NO_FIT = Integer.MIN_VALUE;
+    /**
+     * subtracted from the rating if a part of the stone stays above the board
+     */
+    private static final double OVERFLOW_PENALTY = 1e6;
+    /**
+     * hpos, rotations, holes, lines of the best position found
+     */
+    private final int[] result = new int[4];
+    private PlacementEvaluator evaluator;
+    private Board scratch;
+    private double bestRating;
+    /**
+     * topmost board row of the stone after the last drop
+     */
+    private int dropTop;
+    private EvalCache cache;
+    private final int[] cached = new int[2];
+    /**
+     * lines and holes of the last {@link #ratePosition}
+     */
+    private int lastLines;
+    private int lastHoles;
+    private long hits;
+    private long misses;
+    private final AtomicLong hitCounter = Metrics.getDefault().counter(Metrics.EVAL_CACHE_HITS);
+    private final AtomicLong missCounter = Metrics.getDefault().counter(Metrics.EVAL_CACHE_MISSES);
+
+    public PlacementSearch() {
+        this(LinearEvaluator.getDefault());
+    }
+
+    /**
+     *
+     * @param evaluator rates the positions
+     */
+    public PlacementSearch(PlacementEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    public PlacementEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    public void setEvaluator(PlacementEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Sets the cache of ratings, it's only used while it belongs to the
+     * evaluator of this search.
+     * @param cache the cache or null
+     */
+    public void setCache(EvalCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Finds the best position of a stone that isn't placed on the board.
+     *
+     * The returned array is reused by the next search, it contains the
+     * horizontal position, the number of left rotations, the number of
+     * holes and the number of removed lines after the stone was dropped.
+     * @param board
+     * @param type type of the stone
+     * @param rotation current rotation of the stone
+     * @return the best position or -1 values if there is none
+     */
+    public int[] search(Board board, int type, int rotation) {
+        Arrays.fill(result, -1);
+        bestRating = Double.NEGATIVE_INFINITY;
+        Board b = getScratch(board);
+        long boardHash = hashForCache(board);
+
+        int tried = 0;
+        for (int rots = 0; rots < StoneCatalog.ROTATIONS; rots++) {
+            //rotations
+            int rot = (rotation + rots) % StoneCatalog.ROTATIONS;
+            int shape = 1 << StoneCatalog.getShapeId(type, rot);
+            if ((tried & shape) != 0) {
+                continue;
+            }
+            tried |= shape;
+            for (int hpos = MIN_X; hpos < board.getWidth() - 1; hpos++) {
+                //horicontal positions
+                double rating = ratePosition(board, boardHash, type, rot, hpos, b);
+                if (lastLines < 0) {
+                    continue;
+                }
+
+                if (rating > bestRating) {
+                    result[0] = hpos;
+                    result[1] = rots;
+                    result[2] = lastHoles;
+                    result[3] = lastLines;
+                    bestRating = rating;
+                }
+            }
+        }
+        flushCacheStats();
+
+        return result;
+    }
+
+    /**
+     * Returns the hash of the board if the cache can be used.
+     * @param board
+     * @return the hash or 0 if there is no cache for the evaluator
+     */
+    long hashForCache(Board board) {
+        return cache != null && cache.getEvaluator() == evaluator ? EvalCache.hash(board) : 0;
+    }
+
+    /**
+     * Drops a stone and rates the board, or takes the rating from the cache.
+     * The lines and holes are kept in {@link #lastLines} and
+     * {@link #lastHoles}, the lines are -1 if the stone doesn't fit.
+     * @param board
+     * @param boardHash see {@link #hashForCache(Board)}
+     * @param type
+     * @param rotation
+     * @param hpos
+     * @param target receives the board with the dropped stone, it's left
+     * unchanged if the rating is cached
+     * @return the rating
+     */
+    double ratePosition(Board board, long boardHash, int type, int rotation, int hpos, Board target) {
+        long key = 0;
+        if (boardHash != 0) {
+            key = EvalCache.key(boardHash, type, rotation, hpos);
+            double rating = cache.get(key, cached);
+            if (!Double.isNaN(rating)) {
+                hits++;
+                lastLines = cached[0];
+                lastHoles = cached[1];
+                return rating;
+            }
+            misses++;
+        }
+
+        lastLines = drop(board, type, rotation, hpos, target);
+        double rating = Double.NEGATIVE_INFINITY;
+        lastHoles = 0;
+        if (lastLines >= 0) {
+            rating = rate(target, lastLines);
+            lastHoles = target.getHoleCount();
+        }
+        if (boardHash != 0) {
+            cache.put(key, rating, lastLines, lastHoles);
+        }
+        return rating;
+    }
+
+    /**
+     * Returns the lines removed by the last {@link #ratePosition}.
+     * @return
+     */
+    int getLastLines() {
+        return lastLines;
+    }
+
+    /**
+     * Adds the cache hits and misses since the last call to the metrics.
+     */
+    void flushCacheStats() {
+        if (hits + misses > 0) {
+            hitCounter.addAndGet(hits);
+            missCounter.addAndGet(misses);
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    /**
+     * Returns the rating of the position found by the last search.
+     * @return
+     */
+    public double getBestRating() {
+        return bestRating;
+    }
+
+    /**
+     * Drops a stone from the top on a copy of the board and removes the full
+     * lines.
+     * @param board
+     * @param type
+     * @param rotation
+     * @param hpos
+     * @param target receives the board with the dropped stone
+     * @return number of removed lines or -1 if the stone doesn't fit at the
+     * top of the board
+     */
+    int drop(Board board, int type, int rotation, int hpos, Board target) {
+        int y = dropRow(board, type, rotation, hpos, START_Y);
+        if (y == NO_FIT) {
+            return -1;
+        }
+
+        target.copyFrom(board);
+        Stone.place(target, type, rotation, hpos, y, type + 2);
+        return target.removeFullLines();
+    }
+
+    /**
+     * Rates the board of the last {@link #drop}.
+     * @param board
+     * @param lines
+     * @return
+     */
+    double rate(Board board, int lines) {
+        double rating = evaluator.evaluate(board, lines);
+        if (dropTop < 0) {
+            rating -= OVERFLOW_PENALTY;
+        }
+        return rating;
+    }
+
+    /**
+     * Returns a scratch board of the same size as the given one.
+     * @param board
+     * @return
+     */
+    private Board getScratch(Board board) {
+        if (scratch == null || scratch.getWidth() != board.getWidth()
+                || scratch.getHeight() != board.getHeight()) {
+            scratch = new Board(board.getWidth(), board.getHeight());
+        }
+        return scratch;
+    }
+
+    /**
+     * Computes the row a stone lands in when it falls straight down. The
+     * distance is taken from the column index of the board, so the stone
+     * isn't moved row by row.
+     * @param board
+     * @param type
+     * @param rotation
+     * @param x
+     * @param startY
+     * @return the row or {@link #NO_FIT} if the stone doesn't fit at startY
+     */
+    private int dropRow(Board board, int type, int rotation, int x, int startY) {
+        if (!Stone.mayPlace(board, type, rotation, x, startY)) {
+            return NO_FIT;
+        }
+
+        int[] cellsX = StoneCatalog.getCellsX(type, rotation);
+        int[] cellsY = StoneCatalog.getCellsY(type, rotation);
+        int distance = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        for (int i = 0; i < cellsX.length; i++) {
+            int bx = x + cellsX[i];
+            int by = startY + cellsY[i] + Math.abs((x % 2) * (cellsX[i] % 2));
+            int d;
+            if (bx < 0 || bx >= board.getWidth()) {
+                //outside the board only above the top
+                d = -1 - by;
+            } else {
+                int below = board.getFirstOccupied(bx, Math.max(by + 1, 0));
+                d = (below < 0 ? board.getHeight() : below) - by - 1;
+            }
+            distance = Math.min(distance, d);
+            top = Math.min(top, by);
+        }
+        dropTop = top + distance;
+        return startY + distance;
+    }
+}
@@ -127,7 +127,6 @@ public class PrefsDlg extends JDialog {
     private void hexSizeActionPerformed(ActionEvent e) {
         Context.HexSize size = btnNormalSize.isSelected() ? Context.HexSize.NORMAL : Context.HexSize.BIG;
         ctx.put(Context.Property.HEX_SIZE, size.toString());
-        GamePanel.setHexSize(size);
     }
 
     /**
@@ -0,0 +1,149 @@
+package net.hextris;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Plays a replay written by {@link ReplayWriter} again without user
+ * interface.
+ *
+ * The game loop is ticked as fast as possible and every command is posted
+ * right before the tick it was executed in. At the end the lines and stones
+ * are compared with the ones stored in the replay.
+ *
+ * Usage: <code>java -cp hextris.jar net.hextris.ReplayPlayer file...</code>
+ */
+public class ReplayPlayer {
+
+    private final GameEngine engine = new GameEngine();
+    private final GameLoop loop = new GameLoop(engine);
+    private int expectedLines = -1;
+    private int expectedStones = -1;
+    private boolean complete;
+
+    /**
+     * Plays the replay.
+     * @param in
+     * @throws IOException if the replay is broken
+     */
+    public void play(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[ReplayWriter.MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, ReplayWriter.MAGIC)) {
+            throw new IOException("not a replay");
+        }
+        int version = data.readUnsignedByte();
+        if (version != ReplayWriter.VERSION) {
+            throw new IOException("unknown replay version " + version);
+        }
+        long seed = data.readLong();
+        int severity = data.readUnsignedByte();
+        int level = data.readUnsignedByte();
+
+        engine.newGame(severity, level, seed);
+        loop.reset();
+        Command[] commands = Command.values();
+        long tick = 0;
+        while (true) {
+            long record;
+            try {
+                record = readNumber(data);
+            } catch (EOFException ex) {
+                //the game wasn't finished, e.g. the program was killed
+                return;
+            }
+            tick += record >>> ReplayWriter.CODE_BITS;
+            int code = (int) (record & ReplayWriter.END);
+            runUntil(tick);
+            if (code == ReplayWriter.END) {
+                expectedLines = (int) readNumber(data);
+                expectedStones = (int) readNumber(data);
+                complete = true;
+                return;
+            }
+            if (code >= commands.length) {
+                throw new IOException("unknown command " + code);
+            }
+            loop.post(commands[code]);
+        }
+    }
+
+    /**
+     * Ticks until the tick count is reached or the game is over.
+     * @param tick
+     */
+    private void runUntil(long tick) {
+        while (loop.getTicks() < tick && !engine.isGameOver()) {
+            loop.tick();
+        }
+    }
+
+    private static long readNumber(DataInputStream in) throws IOException {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            n |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw new IOException("number too long");
+    }
+
+    public GameEngine getEngine() {
+        return engine;
+    }
+
+    public long getTicks() {
+        return loop.getTicks();
+    }
+
+    /**
+     * Tells if the replay had an end record.
+     * @return
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Tells if the game ended with the lines and stones stored in the
+     * replay.
+     * @return
+     */
+    public boolean isVerified() {
+        return complete && engine.getLines() == expectedLines && engine.getStones() == expectedStones;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: ReplayPlayer file...");
+            return;
+        }
+
+        for (String file : args) {
+            ReplayPlayer player = new ReplayPlayer();
+            long start = System.nanoTime();
+            InputStream in = new FileInputStream(file);
+            try {
+                player.play(in);
+            } finally {
+                in.close();
+            }
+            double secs = (System.nanoTime() - start) / 1e9;
+            GameEngine e = player.getEngine();
+            String result = !player.isComplete() ? "incomplete"
+                    : player.isVerified() ? "verified"
+                    : "MISMATCH, expected " + player.expectedLines + " lines, " + player.expectedStones + " stones";
+            System.out.println(String.format("%s: seed %d, %d ticks, %d lines, %d stones, %s (%.0fx real time)",
+                    file, e.getSeed(), player.getTicks(), e.getLines(), e.getStones(), result,
+                    player.getTicks() * GameLoop.TICK_MILLIS / 1000.0 / secs));
+        }
+    }
+}
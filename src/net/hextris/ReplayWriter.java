@@ -0,0 +1,104 @@
+package net.hextris;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a replay of a game while it's played.
+ *
+ * A game is determined by its seed, severity and start level and by the
+ * commands the player gave, so that's all a replay contains. The format is:
+ * <pre>
+ * "HXR" version:byte seed:long severity:byte level:byte
+ * record*
+ * </pre>
+ * Every record starts with a variable length number holding the ticks
+ * since the previous record shifted left by three bits, the low bits are
+ * the {@link Command} ordinal or {@link #END}. The end record is followed by
+ * the lines and stones of the game, also as variable length numbers. Most
+ * records need a single byte.
+ *
+ * The ticks are the ones counted by {@link GameLoop#getTicks()}.
+ * {@link ReplayPlayer} plays a replay again.
+ */
+public class ReplayWriter implements Closeable {
+
+    static final byte[] MAGIC = {'H', 'X', 'R'};
+    static final int VERSION = 1;
+    static final int CODE_BITS = 3;
+    /**
+     * code of the last record
+     */
+    static final int END = (1 << CODE_BITS) - 1;
+    private final DataOutputStream out;
+    private long lastTick;
+
+    /**
+     * Writes the header of the replay.
+     * @param out receives the replay, is closed by {@link #close()}
+     * @param seed see {@link GameEngine#getSeed()}
+     * @param severity
+     * @param level start level
+     * @throws IOException
+     */
+    public ReplayWriter(OutputStream out, long seed, int severity, int level) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.write(MAGIC);
+        this.out.writeByte(VERSION);
+        this.out.writeLong(seed);
+        this.out.writeByte(severity);
+        this.out.writeByte(level);
+    }
+
+    /**
+     * Records a command executed at the given tick.
+     * @param tick
+     * @param command
+     * @throws IOException
+     */
+    public void record(long tick, Command command) throws IOException {
+        writeRecord(tick, command.ordinal());
+    }
+
+    /**
+     * Writes the end record with the result of the game.
+     * @param tick the tick count when the game ended
+     * @param lines
+     * @param stones
+     * @throws IOException
+     */
+    public void finish(long tick, int lines, int stones) throws IOException {
+        writeRecord(tick, END);
+        writeNumber(lines);
+        writeNumber(stones);
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeRecord(long tick, int code) throws IOException {
+        if (tick < lastTick) {
+            throw new IOException("tick " + tick + " before " + lastTick);
+        }
+        writeNumber(((tick - lastTick) << CODE_BITS) | code);
+        lastTick = tick;
+    }
+
+    /**
+     * Writes seven bits per byte, the high bit tells that more bytes follow.
+     * @param n
+     * @throws IOException
+     */
+    private void writeNumber(long n) throws IOException {
+        while ((n & ~0x7FL) != 0) {
+            out.writeByte((int) (n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte((int) n);
+    }
+}
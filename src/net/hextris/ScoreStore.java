@@ -0,0 +1,400 @@
+package net.hextris;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the best scores in a memory mapped file.
+ *
+ * The file holds two regions of fixed size records, only one of them is
+ * active. A new score is appended to the active region. When the region is
+ * full, the scores still in the list are compacted into the other region,
+ * which then gets active by increasing the generation in the header.
+ *
+ * Every record carries the generation of its region and a checksum. A
+ * record torn by a crash or left over from an older generation ends the
+ * region when the file is read, so the list is never corrupted. Only the
+ * write of the generation must not be torn, which a single aligned int
+ * on a mapped page isn't.
+ *
+ * The scores are kept sorted in memory as well, adding a score and
+ * checking if a number of lines is high enough takes O(log n).
+ */
+public class ScoreStore {
+
+    /**
+     * A score in the list.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final int lines;
+        private final long time;
+        private final long seq;
+
+        Entry(String name, int lines, long time, long seq) {
+            this.name = name;
+            this.lines = lines;
+            this.time = time;
+            this.seq = seq;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getLines() {
+            return lines;
+        }
+
+        /**
+         * Returns when the score was added.
+         * @return milliseconds since 1970
+         */
+        public long getTime() {
+            return time;
+        }
+
+        @Override
+        public String toString() {
+            return lines + " " + name;
+        }
+    }
+    private static final int MAGIC = 0x48585331;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int GENERATION_POS = 12;
+    private static final int RECORD_SIZE = 48;
+    /**
+     * name bytes of a record, longer names are cut
+     */
+    static final int NAME_SIZE = 27;
+    /**
+     * records of a region per entry of the list
+     */
+    private static final int REGION_FACTOR = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * best score first, equal scores by age
+     */
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+
+        public int compare(Entry e1, Entry e2) {
+            if (e1.lines != e2.lines) {
+                return e1.lines > e2.lines ? -1 : 1;
+            }
+            if (e1.time != e2.time) {
+                return e1.time < e2.time ? -1 : 1;
+            }
+            return e1.seq < e2.seq ? -1 : (e1.seq > e2.seq ? 1 : 0);
+        }
+    };
+    private final TreeSet<Entry> entries = new TreeSet<Entry>(ORDER);
+    private final int capacity;
+    private final int regionRecords;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer map;
+    private final CRC32 crc = new CRC32();
+    private final byte[] record = new byte[RECORD_SIZE];
+    private int generation;
+    /**
+     * records in the active region
+     */
+    private int used;
+    private long seq;
+
+    /**
+     * Opens the score list, it's created if the file doesn't exist. If the
+     * file was created with another capacity it's rewritten.
+     * @param path
+     * @param capacity number of scores kept
+     * @throws IOException
+     */
+    public ScoreStore(File path, int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        this.capacity = capacity;
+        this.regionRecords = REGION_FACTOR * capacity;
+        if (path.exists() && path.length() > 0 && readCapacity(path) != capacity) {
+            resize(path);
+        }
+
+        file = new RandomAccessFile(path, "rw");
+        boolean created = file.length() == 0;
+        long size = HEADER_SIZE + 2L * regionRecords * RECORD_SIZE;
+        map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (created) {
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            map.putInt(8, capacity);
+            map.putInt(GENERATION_POS, 0);
+            map.force();
+        } else {
+            readEntries(map, 0);
+        }
+    }
+
+    /**
+     * Reads the capacity from the header of an existing file.
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    private static int readCapacity(File path) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(path, "r");
+        try {
+            if (f.readInt() != MAGIC) {
+                throw new IOException(path + " isn't a score list");
+            }
+            if (f.readInt() != VERSION) {
+                throw new IOException("unknown version of " + path);
+            }
+            return f.readInt();
+        } finally {
+            f.close();
+        }
+    }
+
+    /**
+     * Rewrites a file of another capacity to a temporary file which then
+     * replaces it.
+     * @param path
+     * @throws IOException
+     */
+    private void resize(File path) throws IOException {
+        RandomAccessFile old = new RandomAccessFile(path, "r");
+        try {
+            ByteBuffer buf = ByteBuffer.allocate((int) old.length());
+            while (buf.hasRemaining() && old.getChannel().read(buf, buf.position()) > 0) {
+            }
+            readEntries(buf, buf.getInt(8) * REGION_FACTOR);
+        } finally {
+            old.close();
+        }
+
+        File tmp = new File(path.getPath() + ".tmp");
+        RandomAccessFile f = new RandomAccessFile(tmp, "rw");
+        try {
+            f.setLength(0);
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + entries.size() * RECORD_SIZE);
+            buf.putInt(0, MAGIC);
+            buf.putInt(4, VERSION);
+            buf.putInt(8, capacity);
+            buf.putInt(GENERATION_POS, 0);
+            int pos = HEADER_SIZE;
+            for (Entry e : entries) {
+                encode(e, 0);
+                buf.position(pos);
+                buf.put(record);
+                pos += RECORD_SIZE;
+            }
+            buf.rewind();
+            f.getChannel().write(buf, 0);
+            f.getChannel().force(true);
+        } finally {
+            f.close();
+        }
+        Files.move(tmp.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        entries.clear();
+    }
+
+    /**
+     * Reads the valid records of the active region into the index.
+     * @param buf the whole file
+     * @param records records per region, 0 for the capacity of this store
+     */
+    private void readEntries(ByteBuffer buf, int records) {
+        if (records == 0) {
+            records = regionRecords;
+        }
+        generation = buf.getInt(GENERATION_POS);
+        int start = HEADER_SIZE + (generation & 1) * records * RECORD_SIZE;
+        used = 0;
+        while (used < records && start + (used + 1) * RECORD_SIZE <= buf.limit()) {
+            buf.position(start + used * RECORD_SIZE);
+            buf.get(record);
+            Entry e = decode();
+            if (e == null) {
+                break;
+            }
+            insert(e);
+            used++;
+        }
+    }
+
+    /**
+     * Checks whether the given number of lines is high enough to get into
+     * the list.
+     * @param lines
+     * @return
+     */
+    public synchronized boolean isHighScore(int lines) {
+        return entries.size() < capacity || lines > entries.last().lines;
+    }
+
+    /**
+     * Adds a score if it's high enough. The score is on disk when this
+     * returns.
+     * @param name
+     * @param lines
+     * @return true if added, false otherwise
+     * @throws IOException
+     */
+    public synchronized boolean add(String name, int lines) throws IOException {
+        if (!isHighScore(lines)) {
+            return false;
+        }
+
+        Entry e = new Entry(truncate(name), lines, System.currentTimeMillis(), seq++);
+        if (used == regionRecords) {
+            compact();
+        }
+        encode(e, generation);
+        map.position(regionStart(generation) + used * RECORD_SIZE);
+        map.put(record);
+        map.force();
+        used++;
+        insert(e);
+        return true;
+    }
+
+    /**
+     * Returns the best scores.
+     * @param n maximum number of scores
+     * @return
+     */
+    public synchronized List<Entry> getTop(int n) {
+        List<Entry> res = new ArrayList<Entry>(Math.min(n, entries.size()));
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext() && res.size() < n) {
+            res.add(it.next());
+        }
+        return res;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Writes all changes and closes the file.
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        map.force();
+        file.close();
+    }
+
+    /**
+     * Adds an entry to the index and drops the lowest one if the list is
+     * too long.
+     * @param e
+     */
+    private void insert(Entry e) {
+        seq = Math.max(seq, e.seq + 1);
+        entries.add(e);
+        if (entries.size() > capacity) {
+            entries.pollLast();
+        }
+    }
+
+    /**
+     * Writes the entries of the list to the inactive region and activates
+     * it.
+     */
+    private void compact() {
+        int next = generation + 1;
+        int pos = regionStart(next);
+        for (Entry e : entries) {
+            encode(e, next);
+            map.position(pos);
+            map.put(record);
+            pos += RECORD_SIZE;
+        }
+        map.force();
+
+        //a crash before this line leaves the old region active
+        map.putInt(GENERATION_POS, next);
+        map.force();
+        generation = next;
+        used = entries.size();
+    }
+
+    private int regionStart(int gen) {
+        return HEADER_SIZE + (gen & 1) * regionRecords * RECORD_SIZE;
+    }
+
+    /**
+     * Writes an entry to the record buffer.
+     * @param e
+     * @param gen generation of the region the record is written to
+     */
+    private void encode(Entry e, int gen) {
+        ByteBuffer buf = ByteBuffer.wrap(record);
+        byte[] name = e.name.getBytes(UTF8);
+        buf.putInt(e.lines);
+        buf.putLong(e.time);
+        buf.putInt(gen);
+        buf.put((byte) name.length);
+        buf.put(name);
+        while (buf.position() < RECORD_SIZE - 4) {
+            buf.put((byte) 0);
+        }
+        crc.reset();
+        crc.update(record, 0, RECORD_SIZE - 4);
+        buf.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Reads the record buffer.
+     * @return the entry or null if the record is invalid or of another
+     * generation
+     */
+    private Entry decode() {
+        ByteBuffer buf = ByteBuffer.wrap(record);
+        crc.reset();
+        crc.update(record, 0, RECORD_SIZE - 4);
+        if (buf.getInt(RECORD_SIZE - 4) != (int) crc.getValue()) {
+            return null;
+        }
+        int lines = buf.getInt();
+        long time = buf.getLong();
+        if (buf.getInt() != generation) {
+            return null;
+        }
+        int len = Math.min(buf.get() & 0xFF, NAME_SIZE);
+        String name = new String(record, buf.position(), len, UTF8);
+        return new Entry(name, lines, time, seq++);
+    }
+
+    /**
+     * Cuts a name to the bytes of a record without splitting a character.
+     * @param name
+     * @return
+     */
+    private static String truncate(String name) {
+        while (name.getBytes(UTF8).length > NAME_SIZE) {
+            name = name.substring(0, name.offsetByCodePoints(name.length(), -1));
+        }
+        return name;
+    }
+}
@@ -0,0 +1,89 @@
+package net.hextris;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * Holds the brick images of the hexagons, one per hex size and color id.
+ *
+ * The images are loaded once and copied into images compatible with the
+ * screen, so drawing them needs no conversion. All colors share the same
+ * brick image for now. Other offscreen images are created compatible the
+ * same way by {@link #createImage(int, int, int)}.
+ */
+final class SpriteCache {
+
+    /**
+     * color ids are stored as bytes by the board
+     */
+    static final int COLORS = 256;
+    private static final Map<Context.HexSize, Image[]> sprites =
+            new EnumMap<Context.HexSize, Image[]>(Context.HexSize.class);
+
+    private SpriteCache() {
+    }
+
+    /**
+     * Returns the sprites of all color ids for the given hex size.
+     * @param size
+     * @return sprites indexed by color id, must not be modified
+     */
+    static synchronized Image[] getSprites(Context.HexSize size) {
+        Image[] res = sprites.get(size);
+        if (res == null) {
+            res = new Image[COLORS];
+            Image brick = load(size == Context.HexSize.NORMAL ? "brick.gif" : "brick_big.gif");
+            for (int i = 1; i < COLORS; i++) {
+                res[i] = brick;
+            }
+            sprites.put(size, res);
+        }
+        return res;
+    }
+
+    /**
+     * Loads an image and copies it into a compatible image.
+     * @param name
+     * @return
+     */
+    private static Image load(String name) {
+        BufferedImage src;
+        try {
+            src = ImageIO.read(SpriteCache.class.getResource("/net/hextris/images/" + name));
+        } catch (IOException ex) {
+            System.out.println("could not load image " + name);
+            return null;
+        }
+
+        BufferedImage img = createImage(src.getWidth(), src.getHeight(), Transparency.BITMASK);
+        Graphics2D g = img.createGraphics();
+        g.drawImage(src, 0, 0, null);
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * Creates an image compatible with the screen.
+     * @param width
+     * @param height
+     * @param transparency see {@link Transparency}
+     * @return
+     */
+    static BufferedImage createImage(int width, int height, int transparency) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+                    ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        }
+        GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().
+                getDefaultScreenDevice().getDefaultConfiguration();
+        return gc.createCompatibleImage(width, height, transparency);
+    }
+}
@@ -0,0 +1,100 @@
+package net.hextris;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the time from launching the game to its first frame.
+ *
+ * The game is started in a new JVM with {@link Hextris#STARTUP_PROPERTY}
+ * set, so it exits after the first frame. The time until the child
+ * reports the frame is taken as the time to the first frame, the JVM start
+ * included. If a class data sharing archive is given, runs with and
+ * without the archive alternate.
+ *
+ * Usage: <code>java -cp hextris.jar net.hextris.StartupBenchmark
+ * [-runs n] [-archive file.jsa]</code>
+ */
+public class StartupBenchmark {
+
+    /**
+     * Starts the game once.
+     * @param archive class data sharing archive or null
+     * @return milliseconds to the first frame
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private static long run(String archive) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (archive != null) {
+            cmd.add("-XX:SharedArchiveFile=" + archive);
+        }
+        cmd.add("-D" + Hextris.STARTUP_PROPERTY + "=true");
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(Hextris.class.getName());
+
+        long start = System.nanoTime();
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        long time = -1;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (time < 0 && line.startsWith(Hextris.FIRST_FRAME)) {
+                time = (System.nanoTime() - start) / 1000000;
+            }
+        }
+        in.close();
+        if (p.waitFor() != 0 || time < 0) {
+            throw new IOException("the game didn't show a frame, exit code " + p.exitValue());
+        }
+        return time;
+    }
+
+    private static String report(String name, long[] times) {
+        Arrays.sort(times);
+        return String.format("%s: min %d ms, median %d ms, max %d ms",
+                name, times[0], times[times.length / 2], times[times.length - 1]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = 10;
+        String archive = null;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-runs")) {
+                runs = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("-archive")) {
+                archive = args[i + 1];
+            } else {
+                System.out.println("unknown option: " + args[i]);
+                return;
+            }
+        }
+        if (archive != null && !new File(archive).exists()) {
+            System.out.println("no archive " + archive + ", run ant cds first");
+            archive = null;
+        }
+
+        //one run to get the jar and the images into the file cache
+        run(null);
+        long[] plain = new long[runs];
+        long[] shared = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            plain[i] = run(null);
+            if (archive != null) {
+                shared[i] = run(archive);
+            }
+        }
+        System.out.println(report("first frame", plain));
+        if (archive != null) {
+            System.out.println(report("first frame with " + archive, shared));
+        }
+    }
+}
@@ -31,6 +31,8 @@ public class Stone extends Board {
     private int posX;
     private int posY;
     private int color;
+    private int type;
+    private int rotation;
     private Board board;
     private int[][] severities = {{0, 7}, {3, 13}, {5, 16}};
     /**
@@ -155,8 +157,18 @@ public class Stone extends Board {
      * @param severity
      */
     public Stone(Board board, int severity) {
+        this(board, severity, new Random());
+    }
+
+    /**
+     * Creates a random stone according to severity, the type is taken
+     * from the given random generator.
+     * @param board
+     * @param severity
+     * @param r
+     */
+    public Stone(Board board, int severity, Random r) {
         super(5, 5);
-        Random r = new Random();
         this.setType(r.nextInt(severities[severity][1] - severities[severity][0]) + severities[severity][0]);
         this.setBoard(board);
         posX = 0;
@@ -170,7 +182,9 @@ public class Stone extends Board {
      */
     public Stone(Stone stone, Board board) {
         super(5, 5);
-        this.setField(stone.getField());
+        this.copyFrom(stone);
+        this.type = stone.type;
+        this.rotation = stone.rotation;
         this.color = stone.getColor();
         this.setBoard(board);
         posX = 0;
@@ -183,7 +197,6 @@ public class Stone extends Board {
      */
     public Stone(int i) {
         super(5, 5);
-        this.setField(new int[5][5]);
         this.setType(i);
         posX = 0;
         posY = 0;
@@ -194,11 +207,9 @@ public class Stone extends Board {
      * @param nr
      */
     private void setType(int nr) {
-        for (int y = 0; y < field.length; y++) {
-            for (int x = 0; x < field[y].length; x++) {
-                field[y][x] = stones[nr][y][x];
-            }
-        }
+        type = nr;
+        rotation = 0;
+        StoneCatalog.copyShape(type, rotation, this);
         color = nr + 2;
     }
 
@@ -229,16 +240,28 @@ public class Stone extends Board {
             return;
         }
 
-        for (int y = 0; y < field.length; y++) {
-            for (int x = 0; x < field[y].length; x++) {
-                int val = field[y][x];
-                if (val == 0) {
-                    continue;
-                }
-                int bx = posX + x;
-                int by = posY + y + Math.abs((posX % 2) * (x % 2));
-                board.setField(bx, by, place ? color : 0);
-            }
+        place(board, type, rotation, posX, posY, place ? color : 0);
+    }
+
+    /**
+     * Sets the fields of a stone of given type and rotation on a board.
+     * Odd columns of the stone are shifted half a hexagon down when it's
+     * placed to an odd column of the board.
+     * @param board
+     * @param type
+     * @param rotation
+     * @param nX
+     * @param nY
+     * @param color color of the fields, 0 removes the stone
+     */
+    static void place(Board board, int type, int rotation, int nX, int nY, int color) {
+        int[] cellsX = StoneCatalog.getCellsX(type, rotation);
+        int[] cellsY = StoneCatalog.getCellsY(type, rotation);
+        for (int i = 0; i < cellsX.length; i++) {
+            int x = cellsX[i];
+            int bx = nX + x;
+            int by = nY + cellsY[i] + Math.abs((nX % 2) * (x % 2));
+            board.setField(bx, by, color);
         }
     }
 
@@ -253,17 +276,28 @@ public class Stone extends Board {
             return false;
         }
 
-        for (int y = 0; y < field.length; y++) {
-            for (int x = 0; x < field[y].length; x++) {
-                int val = field[y][x];
-                if (val == 0) {
-                    continue;
-                }
-                int bx = nX + x;
-                int by = nY + y + Math.abs((nX % 2) * (x % 2));
-                if (by >= 0 && board.getField(bx, by) != 0) {
-                    return false;
-                }
+        return mayPlace(board, type, rotation, nX, nY);
+    }
+
+    /**
+     * Tests if a stone of given type and rotation can be placed on a board
+     * at given position.
+     * @param board
+     * @param type
+     * @param rotation
+     * @param nX
+     * @param nY
+     * @return
+     */
+    static boolean mayPlace(Board board, int type, int rotation, int nX, int nY) {
+        int[] cellsX = StoneCatalog.getCellsX(type, rotation);
+        int[] cellsY = StoneCatalog.getCellsY(type, rotation);
+        for (int i = 0; i < cellsX.length; i++) {
+            int x = cellsX[i];
+            int bx = nX + x;
+            int by = nY + cellsY[i] + Math.abs((nX % 2) * (x % 2));
+            if (by >= 0 && board.getField(bx, by) != 0) {
+                return false;
             }
         }
         return true;
@@ -271,11 +305,12 @@ public class Stone extends Board {
 
     /**
      * Moves the stone in specified way.
-     * It's synchronized so only one thread can move the stone at a time.
+     * Only the thread driving the game may move the stone, see
+     * {@link GameEngine}.
      * @param type
      * @return
      */
-    public synchronized boolean moveStone(int type) {
+    public boolean moveStone(int type) {
         switch (type) {
             case MOVE_DOWN:
                 return this.moveDown();
@@ -338,15 +373,16 @@ public class Stone extends Board {
 
     /**
      * Rotates the stone on the board if possible.
-     * If stone can only be rotated by moving left or right, then it moves
+     * If stone can only be rotated by moving left or right, then it moves.
+     * The rotated shape is taken from the {@link StoneCatalog}.
      * @param direction left or right
      */
     private boolean rotate(boolean direction) {
         boolean res = true;
 
         this.place(false);
-        int[][] oldField = this.field;
-        this.field = this.getFieldRotate(2, 2, direction).field;
+        int oldRotation = this.rotation;
+        this.rotation = StoneCatalog.rotate(this.rotation, direction);
 
         //check posible x-positions
         if (this.mayPlace(this.posX, this.posY)); else if (this.mayPlace(this.posX + 1, this.posY)) {
@@ -358,14 +394,52 @@ public class Stone extends Board {
         } else if (this.mayPlace(this.posX - 2, this.posY)) {
             this.posX -= 2;
         } else {
-            field = oldField;
+            this.rotation = oldRotation;
             res = true;
         }
+        if (this.rotation != oldRotation) {
+            StoneCatalog.copyShape(type, rotation, this);
+        }
         this.place(true);
 
         return res;
     }
 
+    /**
+     * Index of the stone in {@link #stones}.
+     * @return
+     */
+    int getType() {
+        return type;
+    }
+
+    /**
+     * Number of left rotations from the original shape.
+     * @return
+     */
+    int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Computes the board coordinates of the cells of the stone at its
+     * current position.
+     * @param xs receives the columns
+     * @param ys receives the rows
+     * @return number of cells
+     */
+    int getCells(int[] xs, int[] ys) {
+        int nX = posX;
+        int nY = posY;
+        int[] cellsX = StoneCatalog.getCellsX(type, rotation);
+        int[] cellsY = StoneCatalog.getCellsY(type, rotation);
+        for (int i = 0; i < cellsX.length; i++) {
+            xs[i] = nX + cellsX[i];
+            ys[i] = nY + cellsY[i] + Math.abs((nX % 2) * (cellsX[i] % 2));
+        }
+        return cellsX.length;
+    }
+
     /**
      *
      * @return
@@ -383,76 +457,24 @@ public class Stone extends Board {
     }
 
     /**
-     * 
-     * @return
+     * Finds the best position for the demo mode, the stone must not be
+     * placed on the board.
+     * @return see {@link PlacementSearch#search(Board, int, int)}
      */
     public int[] getBestPosition() {
-        int[] bestPos = new int[]{-1, -1, -1, -1};
-        int bestEval = -1;
-        if (this.board == null) {
-            return bestPos;
-        }
-
-        int[] boardSurface = this.board.getSurface(FROM_TOP);
-
-        for (int hpos = -2; hpos < this.board.getWidth() - 1; hpos++) {
-            //horicontal positions
-            Board stoneBoard = new Board(this.getField());
-            for (int rots = 0; rots < 6; rots++) {
-                //rotations
-                int[] stoneSurface = stoneBoard.getSurface(FROM_BOTTOM);
-                boolean valid = true;
-
-                int[] diff = new int[stoneSurface.length];
-                int maxDiff = -1;
-                int maxY = -1;
-                for (int i = 0; i < diff.length; i++) {
-                    int boardX = i + hpos;
-                    if (stoneSurface[i] == -1) {
-                        diff[i] = -1;
-                    } else if (boardX < 0 || i + hpos >= boardSurface.length) {
-                        valid = false;
-                        break;
-                    } else {
-                        diff[i] = 5 + boardSurface[boardX] - stoneSurface[i];
-                        if (Math.abs(hpos % 2) == 1 && i % 2 == 1) {
-                            diff[i]--;
-                        }
-                        if (diff[i] > maxDiff) {
-                            maxDiff = diff[i];
-                        }
-                        if (boardSurface[boardX] > maxY) {
-                            maxY = boardSurface[boardX];
-                        }
-                    }
-                }
-
-                if (valid) {
-                    //auswerten
-                    int holeCount = 0;
-                    for (int i = 0; i < diff.length; i++) {
-                        if (diff[i] != -1) {
-                            holeCount += (maxDiff - diff[i]);
-                        }
-                    }
-
-                    //compare with best
-                    int eval = holeCount * 100 + (50 - maxY);
-                    if (bestEval == -1 || eval < bestEval) {
-                        bestPos[0] = hpos;
-                        bestPos[1] = rots;
-                        bestPos[2] = holeCount;
-                        bestPos[3] = maxDiff;
-                        bestEval = eval;
-                    }
-                }
-                //rotate for next test
-                stoneBoard = stoneBoard.getFieldRotate(2, 2, LEFT);
-            }
+        return getBestPosition(new PlacementSearch());
+    }
 
+    /**
+     * Finds the best position for the demo mode using the given search,
+     * the stone must not be placed on the board.
+     * @param search
+     * @return see {@link PlacementSearch#search(Board, int, int)}
+     */
+    public int[] getBestPosition(PlacementSearch search) {
+        if (this.board == null) {
+            return new int[]{-1, -1, -1, -1};
         }
-
-
-        return bestPos;
+        return search.search(this.board, type, rotation);
     }
 }
@@ -0,0 +1,162 @@
+package net.hextris;
+
+import java.util.Arrays;
+
+/**
+ * Catalog of the shapes of all standard stones in all of their rotations.
+ *
+ * It's built once when the class is loaded by rotating every entry of
+ * {@link Stone#stones} six times around the center of its 5x5 field.
+ * Rotating a stone is then just a step to the next rotation index, no
+ * rotated field has to be computed.
+ *
+ * The shapes are kept as row masks and as lists of occupied cells. The
+ * returned arrays are shared and must not be modified.
+ */
+final class StoneCatalog {
+
+    /**
+     * width and height of the field of a stone
+     */
+    static final int SIZE = 5;
+    /**
+     * number of distinct rotations of every stone
+     */
+    static final int ROTATIONS = 6;
+    /**
+     * row masks indexed by type, rotation and row
+     */
+    private static final long[][][] masks;
+    /**
+     * x-coordinates of occupied cells indexed by type and rotation
+     */
+    private static final int[][][] cellsX;
+    /**
+     * y-coordinates of occupied cells indexed by type and rotation
+     */
+    private static final int[][][] cellsY;
+    /**
+     * lowest occupied row of every column indexed by type and rotation,
+     * -1 for empty columns
+     */
+    private static final int[][][] bottomSurfaces;
+    /**
+     * lowest rotation with the same cells indexed by type and rotation
+     */
+    private static final int[][] shapeIds;
+
+    static {
+        int types = Stone.stones.length;
+        masks = new long[types][ROTATIONS][];
+        cellsX = new int[types][ROTATIONS][];
+        cellsY = new int[types][ROTATIONS][];
+        bottomSurfaces = new int[types][ROTATIONS][];
+        shapeIds = new int[types][ROTATIONS];
+        for (int type = 0; type < types; type++) {
+            Board shape = new Board(Stone.stones[type]);
+            for (int rot = 0; rot < ROTATIONS; rot++) {
+                masks[type][rot] = shape.rows.clone();
+                bottomSurfaces[type][rot] = shape.getSurface(Board.FROM_BOTTOM);
+                int count = 0;
+                for (int y = 0; y < SIZE; y++) {
+                    count += Long.bitCount(shape.rows[y]);
+                }
+                cellsX[type][rot] = new int[count];
+                cellsY[type][rot] = new int[count];
+                int i = 0;
+                for (int y = 0; y < SIZE; y++) {
+                    for (int x = 0; x < SIZE; x++) {
+                        if (shape.isOccupied(x, y)) {
+                            cellsX[type][rot][i] = x;
+                            cellsY[type][rot][i] = y;
+                            i++;
+                        }
+                    }
+                }
+                shape = shape.getFieldRotate(2, 2, Stone.LEFT);
+            }
+
+            //symmetric stones repeat their cells after some rotations
+            for (int rot = 0; rot < ROTATIONS; rot++) {
+                shapeIds[type][rot] = rot;
+                for (int r = 0; r < rot; r++) {
+                    if (Arrays.equals(masks[type][r], masks[type][rot])) {
+                        shapeIds[type][rot] = r;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private StoneCatalog() {
+    }
+
+    /**
+     * Returns the rotation index reached by rotating once in given direction.
+     * @param rotation
+     * @param direction left or right
+     * @return
+     */
+    static int rotate(int rotation, boolean direction) {
+        return (rotation + (direction == Stone.LEFT ? 1 : ROTATIONS - 1)) % ROTATIONS;
+    }
+
+    /**
+     * Returns the lowest rotation of a stone with the same cells as the
+     * given one. Searches skip rotations equal to one already tried.
+     * @param type
+     * @param rotation
+     * @return
+     */
+    static int getShapeId(int type, int rotation) {
+        return shapeIds[type][rotation];
+    }
+
+    /**
+     * x-coordinates of the occupied cells of a stone.
+     * @param type
+     * @param rotation
+     * @return
+     */
+    static int[] getCellsX(int type, int rotation) {
+        return cellsX[type][rotation];
+    }
+
+    /**
+     * y-coordinates of the occupied cells of a stone.
+     * @param type
+     * @param rotation
+     * @return
+     */
+    static int[] getCellsY(int type, int rotation) {
+        return cellsY[type][rotation];
+    }
+
+    /**
+     * Lowest occupied row of every column of a stone, -1 if the column is
+     * empty.
+     * @param type
+     * @param rotation
+     * @return
+     */
+    static int[] getBottomSurface(int type, int rotation) {
+        return bottomSurfaces[type][rotation];
+    }
+
+    /**
+     * Copies the shape of a stone to the given 5x5 board, occupied cells
+     * get the value 1.
+     * @param type
+     * @param rotation
+     * @param target
+     */
+    static void copyShape(int type, int rotation, Board target) {
+        long[] shape = masks[type][rotation];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                target.setField(x, y, (shape[y] & (1L << x)) != 0 ? 1 : 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package net.hextris;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tunes the weights of the {@link LinearEvaluator} with the noisy cross
+ * entropy method, an evolution strategy.
+ *
+ * Every generation samples a population of weight vectors from a normal
+ * distribution per weight. Every candidate plays the same games, the same
+ * seeds for all candidates keep luck from deciding the ranking. The mean
+ * and the deviation of the best candidates become the distribution of the
+ * next generation, a decreasing noise is added to the deviation so the
+ * search doesn't stall early.
+ *
+ * The games of all candidates are spread over all cores, every thread
+ * reuses its own {@link GameEngine}. After every generation the state is
+ * written to a checkpoint and the mean weights to a weights file, which
+ * can be used with <code>-Dhextris.weights</code>. A run started with an
+ * existing checkpoint resumes where it stopped. The random numbers of a
+ * generation only depend on the seed and the generation, so a resumed run
+ * goes on exactly like an uninterrupted one.
+ *
+ * Usage: <code>java -cp hextris.jar net.hextris.WeightTuner
+ * [-generations n] [-population n] [-elite n] [-games n] [-max-stones n]
+ * [-severity 0..2] [-seed s] [-threads n] [-checkpoint file] [-out file]</code>
+ */
+public class WeightTuner {
+
+    private static final int CHECKPOINT_VERSION = 1;
+    /**
+     * deviation of the weights in the first generation
+     */
+    private static final double INITIAL_SIGMA = 1.0;
+    /**
+     * variance added to the elite's variance, divided by the generation
+     */
+    private static final double NOISE = 0.25;
+    private final int population;
+    private final int elite;
+    private final int games;
+    private final int maxStones;
+    private final int severity;
+    private final long seed;
+    private final ThreadLocal<GameEngine> engines = new ThreadLocal<GameEngine>() {
+
+        @Override
+        protected GameEngine initialValue() {
+            return new GameEngine(0);
+        }
+    };
+    private double[] mean;
+    private double[] sigma;
+    private int generation;
+    private double bestFitness = Double.NEGATIVE_INFINITY;
+    private double[] best;
+
+    /**
+     *
+     * @param population candidates per generation
+     * @param elite best candidates the next distribution is made of
+     * @param games games every candidate plays
+     * @param maxStones games are stopped after this number of stones
+     * @param severity
+     * @param seed determines the candidates and the games of every
+     * generation
+     */
+    public WeightTuner(int population, int elite, int games, int maxStones, int severity, long seed) {
+        if (elite < 1 || elite > population) {
+            throw new IllegalArgumentException("elite " + elite + " of " + population);
+        }
+        this.population = population;
+        this.elite = elite;
+        this.games = games;
+        this.maxStones = maxStones;
+        this.severity = severity;
+        this.seed = seed;
+        mean = new LinearEvaluator().getWeights();
+        sigma = new double[mean.length];
+        Arrays.fill(sigma, INITIAL_SIGMA);
+    }
+
+    /**
+     * Plays one game.
+     * @param evaluator
+     * @param gameSeed
+     * @return the lines removed
+     */
+    private int playGame(PlacementEvaluator evaluator, long gameSeed) {
+        GameEngine engine = engines.get();
+        engine.setEvaluator(evaluator);
+        engine.newGame(severity, 1, gameSeed);
+        while (!engine.isGameOver() && engine.getStones() < maxStones) {
+            engine.autoPlace();
+            engine.drop();
+        }
+        return engine.getLines();
+    }
+
+    /**
+     * Samples, rates and selects one generation.
+     * @param pool
+     */
+    public void step(ForkJoinPool pool) {
+        Random random = new Random(seed * 31 + generation);
+        int n = mean.length;
+        final double[][] candidates = new double[population][n];
+        for (double[] c : candidates) {
+            for (int i = 0; i < n; i++) {
+                c[i] = mean[i] + sigma[i] * random.nextGaussian();
+            }
+        }
+
+        //all candidates play the same games
+        long gameSeed = random.nextLong();
+        int[][] lines = new int[population][games];
+        pool.invoke(new GamesTask(candidates, gameSeed, lines, 0, population * games));
+        final double[] fitness = new double[population];
+        Integer[] order = new Integer[population];
+        for (int c = 0; c < population; c++) {
+            long sum = 0;
+            for (int l : lines[c]) {
+                sum += l;
+            }
+            fitness[c] = (double) sum / games;
+            order[c] = c;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            public int compare(Integer c1, Integer c2) {
+                return Double.compare(fitness[c2], fitness[c1]);
+            }
+        });
+
+        double noise = NOISE / (generation + 1);
+        for (int i = 0; i < n; i++) {
+            double m = 0;
+            for (int e = 0; e < elite; e++) {
+                m += candidates[order[e]][i];
+            }
+            m /= elite;
+            double var = 0;
+            for (int e = 0; e < elite; e++) {
+                double d = candidates[order[e]][i] - m;
+                var += d * d;
+            }
+            mean[i] = m;
+            sigma[i] = Math.sqrt(var / elite + noise);
+        }
+
+        if (fitness[order[0]] > bestFitness) {
+            bestFitness = fitness[order[0]];
+            best = candidates[order[0]].clone();
+        }
+        double eliteFitness = 0;
+        for (int e = 0; e < elite; e++) {
+            eliteFitness += fitness[order[e]];
+        }
+        System.out.println(String.format("generation %d: best %.1f, elite %.1f, median %.1f lines, mean %s",
+                generation, fitness[order[0]], eliteFitness / elite, fitness[order[population / 2]],
+                format(mean)));
+        generation++;
+    }
+
+    /**
+     * Plays the games number from..to, game i is game i % games of
+     * candidate i / games.
+     */
+    private class GamesTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final double[][] candidates;
+        private final long gameSeed;
+        private final int[][] lines;
+        private final int from;
+        private final int to;
+
+        GamesTask(double[][] candidates, long gameSeed, int[][] lines, int from, int to) {
+            this.candidates = candidates;
+            this.gameSeed = gameSeed;
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                int c = from / games;
+                int g = from % games;
+                lines[c][g] = playGame(new LinearEvaluator(candidates[c]), gameSeed + g);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new GamesTask(candidates, gameSeed, lines, from, mid),
+                        new GamesTask(candidates, gameSeed, lines, mid, to));
+            }
+        }
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the mean of the current distribution, the weights to use.
+     * @return
+     */
+    public LinearEvaluator getMean() {
+        return new LinearEvaluator(mean);
+    }
+
+    /**
+     * Writes the state to a temporary file which then replaces the
+     * checkpoint, so an interrupted write leaves the last checkpoint.
+     * @param file
+     * @throws IOException
+     */
+    public void saveCheckpoint(File file) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("version", Integer.toString(CHECKPOINT_VERSION));
+        props.setProperty("population", Integer.toString(population));
+        props.setProperty("elite", Integer.toString(elite));
+        props.setProperty("games", Integer.toString(games));
+        props.setProperty("maxStones", Integer.toString(maxStones));
+        props.setProperty("severity", Integer.toString(severity));
+        props.setProperty("seed", Long.toString(seed));
+        props.setProperty("generation", Integer.toString(generation));
+        props.setProperty("mean", join(mean));
+        props.setProperty("sigma", join(sigma));
+        if (best != null) {
+            props.setProperty("bestFitness", Double.toString(bestFitness));
+            props.setProperty("best", join(best));
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            props.store(out, "Hextris weight tuner");
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Creates a tuner from a checkpoint, the options stored in the
+     * checkpoint are used.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static WeightTuner loadCheckpoint(File file) throws IOException {
+        Properties props = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        if (!Integer.toString(CHECKPOINT_VERSION).equals(props.getProperty("version"))) {
+            throw new IOException("unknown checkpoint version in " + file);
+        }
+
+        try {
+            WeightTuner tuner = new WeightTuner(
+                    Integer.parseInt(props.getProperty("population")),
+                    Integer.parseInt(props.getProperty("elite")),
+                    Integer.parseInt(props.getProperty("games")),
+                    Integer.parseInt(props.getProperty("maxStones")),
+                    Integer.parseInt(props.getProperty("severity")),
+                    Long.parseLong(props.getProperty("seed")));
+            tuner.generation = Integer.parseInt(props.getProperty("generation"));
+            tuner.mean = split(props.getProperty("mean"), tuner.mean.length);
+            tuner.sigma = split(props.getProperty("sigma"), tuner.sigma.length);
+            if (props.getProperty("best") != null) {
+                tuner.bestFitness = Double.parseDouble(props.getProperty("bestFitness"));
+                tuner.best = split(props.getProperty("best"), tuner.mean.length);
+            }
+            return tuner;
+        } catch (RuntimeException ex) {
+            //missing or invalid numbers
+            throw new IOException("broken checkpoint " + file + ": " + ex);
+        }
+    }
+
+    private static String join(double[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (double v : values) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(v);
+        }
+        return sb.toString();
+    }
+
+    private static double[] split(String s, int n) {
+        String[] chunks = s.trim().split(" +");
+        if (chunks.length != n) {
+            throw new IllegalArgumentException("expected " + n + " values");
+        }
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = Double.parseDouble(chunks[i]);
+        }
+        return values;
+    }
+
+    private static String format(double[] values) {
+        StringBuilder sb = new StringBuilder("[");
+        for (double v : values) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(String.format("%.3f", v));
+        }
+        return sb.append(']').toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int generations = 50;
+        int population = 32;
+        int elite = -1;
+        int games = 16;
+        int maxStones = 1000;
+        int severity = 1;
+        long seed = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File checkpoint = new File("tuner.checkpoint");
+        File out = new File("weights.properties");
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            if (args[i].equals("-generations")) {
+                generations = Integer.parseInt(value);
+            } else if (args[i].equals("-population")) {
+                population = Integer.parseInt(value);
+            } else if (args[i].equals("-elite")) {
+                elite = Integer.parseInt(value);
+            } else if (args[i].equals("-games")) {
+                games = Integer.parseInt(value);
+            } else if (args[i].equals("-max-stones")) {
+                maxStones = Integer.parseInt(value);
+            } else if (args[i].equals("-severity")) {
+                severity = Integer.parseInt(value);
+            } else if (args[i].equals("-seed")) {
+                seed = Long.parseLong(value);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(value);
+            } else if (args[i].equals("-checkpoint")) {
+                checkpoint = new File(value);
+            } else if (args[i].equals("-out")) {
+                out = new File(value);
+            } else {
+                System.out.println("unknown option: " + args[i]);
+                return;
+            }
+        }
+        if (elite < 0) {
+            elite = Math.max(1, population / 4);
+        }
+
+        WeightTuner tuner;
+        if (checkpoint.exists()) {
+            tuner = loadCheckpoint(checkpoint);
+            System.out.println("resuming " + checkpoint + " at generation " + tuner.getGeneration());
+        } else {
+            tuner = new WeightTuner(population, elite, games, maxStones, severity, seed);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        while (tuner.getGeneration() < generations) {
+            long start = System.nanoTime();
+            tuner.step(pool);
+            tuner.saveCheckpoint(checkpoint);
+            tuner.getMean().save(out);
+            System.out.println(String.format("  %.1f s, weights written to %s", (System.nanoTime() - start) / 1e9, out));
+        }
+        pool.shutdown();
+    }
+}